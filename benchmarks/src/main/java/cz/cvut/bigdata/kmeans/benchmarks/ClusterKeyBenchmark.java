@@ -0,0 +1,77 @@
+package cz.cvut.bigdata.kmeans.benchmarks;
+
+import cz.cvut.bigdata.kmeans.clusters.ClusterKeyWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sort comparisons of {@link ClusterKeyWritable}, both of the objects and of
+ * the serialized keys by the raw comparator the shuffle uses. The document
+ * ids of the keys are spread over a corpus of the given size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterKeyBenchmark {
+
+	private static final int POOL = 1024;
+
+	@Param({"100000", "10000000"})
+	public int documents;
+
+	@Param({"1", "10"})
+	public int clusters;
+
+	private ClusterKeyWritable[] keys;
+	private byte[][] records;
+	private WritableComparator comparator;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		final Random random = new Random(42);
+		final DataOutputBuffer out = new DataOutputBuffer();
+		keys = new ClusterKeyWritable[POOL];
+		records = new byte[POOL][];
+		for (int i = 0; i < POOL; i++) {
+			keys[i] = new ClusterKeyWritable();
+			keys[i].set(random.nextInt(clusters), random.nextInt(documents));
+			out.reset();
+			keys[i].write(out);
+			records[i] = Arrays.copyOf(out.getData(), out.getLength());
+		}
+		comparator = WritableComparator.get(ClusterKeyWritable.class);
+	}
+
+	@Benchmark
+	public int compareTo() {
+		final int i = next++ & (POOL - 1);
+		return keys[i].compareTo(keys[(i + 1) & (POOL - 1)]);
+	}
+
+	@Benchmark
+	public int compareRaw() {
+		final int i = next++ & (POOL - 1);
+		final byte[] one = records[i], two = records[(i + 1) & (POOL - 1)];
+		return comparator.compare(one, 0, one.length, two, 0, two.length);
+	}
+}
@@ -0,0 +1,131 @@
+package cz.cvut.bigdata.kmeans.benchmarks;
+
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kernels of {@link VectorUtils} on a document against a centroid, the
+ * centroid being the mean of the given number of the documents. Each
+ * invocation takes the next document of a pool, so the branches of the
+ * merge loops are not learned for a single pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorKernelsBenchmark {
+
+	private static final int POOL = 256;
+
+	@Param({"1000", "100000", "1000000"})
+	public int vocabulary;
+
+	@Param({"10", "100", "1000"})
+	public int nonZeros;
+
+	@Param({"100"})
+	public int clusterSize;
+
+	private VectorWritable[] documents;
+	private VectorWritable centroid;
+	private final VectorWritable mean = new VectorWritable();
+	private final VectorWritable scratch = new VectorWritable();
+	private DenseAccumulator heapSums, directSums;
+	private int next;
+
+	@Setup
+	public void setup() {
+		final ZipfVectors generator = new ZipfVectors(vocabulary, 42);
+		documents = generator.next(POOL, nonZeros);
+		centroid = ZipfVectors.mean(generator.next(clusterSize, nonZeros));
+		heapSums = new DenseAccumulator(vocabulary, false);
+		directSums = new DenseAccumulator(vocabulary, true);
+	}
+
+	private VectorWritable document() {
+		return documents[next++ & (POOL - 1)];
+	}
+
+	@Benchmark
+	public double cosineSimilarity() {
+		return VectorUtils.cosineSimilarity(document(), centroid);
+	}
+
+	@Benchmark
+	public double euclideanDistance() {
+		return VectorUtils.euclideanDistance(document(), centroid);
+	}
+
+	/** Adds a document to a copy of the centroid, so the copy is measured as well. */
+	@Benchmark
+	public VectorWritable addToMean() {
+		mean.copy(centroid);
+		VectorUtils.addToMean(mean, document());
+		return mean;
+	}
+
+	/** Merges the centroid and all the documents of the pool into their mean as the reducer did by {@link #addToMean}. */
+	@Benchmark
+	public VectorWritable sparseMean() {
+		mean.copy(centroid);
+		for (VectorWritable document : documents) {
+			VectorUtils.addToMean(mean, document);
+		}
+		VectorUtils.normalizeMean(mean, POOL);
+		return mean;
+	}
+
+	/** The same mean as {@link #sparseMean} by the dense sums on the heap. */
+	@Benchmark
+	public VectorWritable heapMean() {
+		return denseMean(heapSums);
+	}
+
+	/** The same mean as {@link #sparseMean} by the dense sums off the heap. */
+	@Benchmark
+	public VectorWritable directMean() {
+		return denseMean(directSums);
+	}
+
+	private VectorWritable denseMean(DenseAccumulator sums) {
+		sums.clear();
+		sums.add(centroid);
+		for (VectorWritable document : documents) {
+			sums.add(document);
+		}
+		sums.toMean(mean, POOL);
+		return mean;
+	}
+
+	/** Normalizes a copy of a document, so the copy is measured as well. */
+	@Benchmark
+	public VectorWritable normalize() {
+		scratch.copy(document());
+		VectorUtils.normalize(scratch);
+		return scratch;
+	}
+
+	/** Baseline of the copies in {@link #addToMean} and {@link #normalize}. */
+	@Benchmark
+	public VectorWritable copy() {
+		scratch.copy(document());
+		mean.copy(centroid);
+		return mean;
+	}
+}
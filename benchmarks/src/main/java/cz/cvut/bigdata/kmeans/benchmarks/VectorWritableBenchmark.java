@@ -0,0 +1,105 @@
+package cz.cvut.bigdata.kmeans.benchmarks;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text and binary serialization of {@link VectorWritable}, i.e. the parsing
+ * of the input, the text output and the map output records in each of the
+ * encodings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorWritableBenchmark {
+
+	private static final int POOL = 64;
+
+	@Param({"100000", "1000000"})
+	public int vocabulary;
+
+	@Param({"10", "100", "1000"})
+	public int nonZeros;
+
+	@Param({"PLAIN", "DELTA", "FLOAT", "QUANTIZED"})
+	public VectorWritable.Encoding encoding;
+
+	private VectorWritable[] vectors;
+	private String[] texts;
+	private Text[] lines;
+	private byte[][] records;
+	private final VectorWritable vector = new VectorWritable();
+	private final DataOutputBuffer out = new DataOutputBuffer();
+	private final DataInputBuffer in = new DataInputBuffer();
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		vectors = new ZipfVectors(vocabulary, 42).next(POOL, nonZeros);
+		texts = new String[POOL];
+		lines = new Text[POOL];
+		records = new byte[POOL][];
+		for (int i = 0; i < POOL; i++) {
+			vectors[i].setEncoding(encoding);
+			texts[i] = vectors[i].toString();
+			lines[i] = new Text(texts[i]);
+			out.reset();
+			vectors[i].write(out);
+			records[i] = Arrays.copyOf(out.getData(), out.getLength());
+		}
+	}
+
+	private int index() {
+		return next++ & (POOL - 1);
+	}
+
+	@Benchmark
+	public VectorWritable parse() {
+		return vector.parse(texts[index()]);
+	}
+
+	@Benchmark
+	public VectorWritable parseBytes() {
+		return vector.parse(lines[index()]);
+	}
+
+	@Benchmark
+	public String format() {
+		return vectors[index()].toString();
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		out.reset();
+		vectors[index()].write(out);
+		return out.getLength();
+	}
+
+	@Benchmark
+	public VectorWritable readFields() throws IOException {
+		final byte[] record = records[index()];
+		in.reset(record, record.length);
+		vector.readFields(in);
+		return vector;
+	}
+}
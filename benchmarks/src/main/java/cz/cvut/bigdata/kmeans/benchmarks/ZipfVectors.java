@@ -0,0 +1,77 @@
+package cz.cvut.bigdata.kmeans.benchmarks;
+
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generator of the sparse TF-IDF like vectors for the benchmarks. The terms
+ * follow the Zipf's law over the vocabulary, as the words of the articles do,
+ * so the low indices are shared by most of the vectors while the tail ones
+ * are rare. The vectors are normalized like the input of the clustering.
+ */
+public class ZipfVectors {
+
+	/** Exponent of the Zipf's law, close to the one of natural languages. */
+	public static final double EXPONENT = 1.07;
+
+	private final double[] cdf;
+	private final Random random;
+
+	public ZipfVectors(int vocabulary, long seed) {
+		cdf = new double[vocabulary];
+		double sum = 0.0;
+		for (int i = 0; i < vocabulary; i++) {
+			sum += 1.0 / Math.pow(i + 1, EXPONENT);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < vocabulary; i++) {
+			cdf[i] /= sum;
+		}
+		random = new Random(seed);
+	}
+
+	/** Draw a single term by its rank. */
+	public int term() {
+		final int found = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min((found >= 0) ? found : -found - 1, cdf.length - 1);
+	}
+
+	/** Generate a normalized vector with (at most) the given number of the distinct terms. */
+	public VectorWritable next(int nonZeros) {
+		final VectorWritable vector = new VectorWritable();
+		final int terms = Math.min(nonZeros, cdf.length);
+		// the frequent terms repeat, so draw until enough distinct ones are there
+		for (int draws = 0; vector.size() < terms && draws < 100 * terms; draws++) {
+			final int term = term();
+			vector.set(term, vector.get(term) + 1.0);
+		}
+		// the rare terms weigh more, as by the inverse document frequency
+		for (int i = 0; i < vector.size(); i++) {
+			vector.setValueAt(i, vector.valueAt(i) * Math.log(2.0 + vector.indexAt(i)));
+		}
+		VectorUtils.normalize(vector);
+		return vector;
+	}
+
+	/** Generate the given number of the vectors. */
+	public VectorWritable[] next(int count, int nonZeros) {
+		final VectorWritable[] vectors = new VectorWritable[count];
+		for (int i = 0; i < count; i++) {
+			vectors[i] = next(nonZeros);
+		}
+		return vectors;
+	}
+
+	/** Mean of the given vectors, the dense-ish centroid the documents are compared to. */
+	public static VectorWritable mean(VectorWritable[] vectors) {
+		final VectorWritable mean = new VectorWritable();
+		for (VectorWritable vector : vectors) {
+			VectorUtils.addToMean(mean, vector);
+		}
+		VectorUtils.normalizeMean(mean, vectors.length);
+		return mean;
+	}
+}
@@ -1,32 +1,81 @@
 package cz.cvut.bigdata.kmeans;
 
 import cz.cvut.bigdata.cli.ArgumentParser;
+import cz.cvut.bigdata.kmeans.centroids.CentroidSnapshot;
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.clusters.BoundedClusteringMapper;
+import cz.cvut.bigdata.kmeans.clusters.BoundedVectorWritable;
 import cz.cvut.bigdata.kmeans.clusters.ClusterKeyWritable;
+import cz.cvut.bigdata.kmeans.clusters.ClusterOutputMapper;
 import cz.cvut.bigdata.kmeans.clusters.ClusterOutputReducer;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringCounter;
 import cz.cvut.bigdata.kmeans.clusters.ClusteringMapper;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringMetrics;
 import cz.cvut.bigdata.kmeans.clusters.ClusteringPartitioner;
 import cz.cvut.bigdata.kmeans.clusters.ClusteringReducer;
+import cz.cvut.bigdata.kmeans.clusters.InMemoryClusteringMapper;
+import cz.cvut.bigdata.kmeans.clusters.PartialSumReader;
+import cz.cvut.bigdata.kmeans.clusters.PartialSumWritable;
+import cz.cvut.bigdata.kmeans.clusters.PartitionPlan;
+import cz.cvut.bigdata.kmeans.clusters.PlanPartitioner;
+import cz.cvut.bigdata.kmeans.dictionary.DictionaryMapper;
+import cz.cvut.bigdata.kmeans.dictionary.DocumentDictionary;
+import cz.cvut.bigdata.kmeans.dictionary.TermDictionary;
+import cz.cvut.bigdata.kmeans.local.LocalKMeans;
 import cz.cvut.bigdata.kmeans.norm.NormalizeMapper;
-import cz.cvut.bigdata.kmeans.norm.NormalizeReducer;
+import cz.cvut.bigdata.kmeans.seeding.Seeding;
+import cz.cvut.bigdata.kmeans.seeding.SeedingCounter;
+import cz.cvut.bigdata.kmeans.seeding.SeedingMapper;
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
 import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.SnappyCodec;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.LongSumReducer;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
 
 /**
  * Main entry-point of the k-means application used for executing
@@ -41,6 +90,11 @@ public class Main extends Configured implements Tool {
 
 	private Configuration conf;
 	private FileSystem hdfs;
+	private String compression;
+	private int reducers;
+	private int dictionaryReducers;
+	/** Mass discarded by the truncation of the means merged by the driver in the last iteration. */
+	private double mergedDiscardedMass;
 
 	@Override
 	public int run(String[] arguments) throws Exception {
@@ -49,103 +103,618 @@ public class Main extends Configured implements Tool {
 		parser.addArgument("k", true, true, "specify the K");
 		parser.addArgument("input", true, true, "specify input directory");
 		parser.addArgument("output", true, true, "specify output directory");
+		parser.addArgument("max-iterations", true, null, false, "specify the maximal number of iterations (K + 1 by default)");
+		parser.addArgument("tolerance", true, "0", false, "specify the centroid shift under which the clustering stops");
+		parser.addArgument("compression", true, "none", false, "specify the codec of the normalized vectors (none, deflate, gzip, bzip2, snappy, lz4)");
+		parser.addArgument("sample-rate", true, "1", false, "specify the fraction of the vectors in the mini-batch of each iteration (all of them by default)");
+		parser.addArgument("reducers", true, null, false, "specify the number of the reducers of the clustering jobs (K by default)");
+		parser.addArgument("dictionary-reducers", true, null, false, "specify the number of the reducers of the dictionary job (K by default)");
+		parser.addArgument("centroid-terms", true, null, false, "specify the maximal number of the heaviest terms kept in each centroid (all by default)");
+		parser.addArgument("centroid-mass", true, "1", false, "specify the fraction of the mass of each centroid kept by its heaviest terms (all by default)");
+		parser.addArgument("bounds", "skip the centroids which cannot win by the triangle inequality, keeping the bounds in a copy of the vectors");
+		parser.addArgument("in-memory", "run all the iterations in one job keeping the vectors in memory (needs a slot for every split)");
+		parser.addArgument("init", true, "parallel", false, "specify the seeding of the centroids (random, parallel)");
+		parser.addArgument("seeding-rounds", true, "5", false, "specify the number of the oversampling rounds of the parallel seeding");
+		parser.addArgument("oversampling", true, null, false, "specify the expected number of the candidates sampled per round (2K by default)");
+		parser.addArgument("local", "run the whole clustering within this JVM instead of the MapReduce jobs");
+		parser.addArgument("threads", true, null, false, "specify the number of threads of the local run (all the cores by default)");
 		parser.parseAndCheck(arguments);
 
 		final int k = parser.getInt("k");
 		final Path inputDir = new Path(parser.getString("input"));
 		final String outputDir = parser.getString("output");
+		final int maxIterations = parser.hasOption("max-iterations") ? parser.getInt("max-iterations") : k + 1;
+		final double tolerance = parser.getDouble("tolerance");
+		compression = parser.getString("compression");
+		reducers = parser.hasOption("reducers") ? parser.getInt("reducers") : k;
+		if (reducers < 1) throw new IllegalArgumentException("the clustering jobs need at least one reducer");
+		dictionaryReducers = parser.hasOption("dictionary-reducers") ? parser.getInt("dictionary-reducers") : k;
+		if (dictionaryReducers < 1) throw new IllegalArgumentException("the dictionary job needs at least one reducer");
+		final String init = parser.getString("init");
+		if (!"random".equals(init) && !"parallel".equals(init)) {
+			throw new IllegalArgumentException("unknown seeding: " + init);
+		}
+		final int seedingRounds = parser.getInt("seeding-rounds");
+		final double oversampling = parser.hasOption("oversampling") ? parser.getDouble("oversampling") : 2.0 * k;
+		final double sampleRate = parser.getDouble("sample-rate");
+		if (sampleRate < 1.0 && (parser.getBoolean("in-memory") || parser.getBoolean("local"))) {
+			throw new IllegalArgumentException("the mini-batch mode runs the clustering jobs only");
+		}
+		final boolean bounds = parser.getBoolean("bounds");
+		if (bounds && (sampleRate < 1.0 || parser.getBoolean("in-memory") || parser.getBoolean("local"))) {
+			throw new IllegalArgumentException("the bounds need all the vectors in every clustering job");
+		}
 
 		conf = getConf();
 		hdfs = FileSystem.get(conf);
+		if (parser.hasOption("centroid-terms")) {
+			if (parser.getInt("centroid-terms") < 1) throw new IllegalArgumentException("a centroid needs at least one term");
+			conf.setInt(ClusteringReducer.MAX_TERMS, parser.getInt("centroid-terms"));
+		}
+		final double centroidMass = parser.getDouble("centroid-mass");
+		if (centroidMass <= 0.0 || centroidMass > 1.0) {
+			throw new IllegalArgumentException("the centroid mass has to be within (0, 1]");
+		}
+		conf.setDouble(ClusteringReducer.MAX_MASS, centroidMass);
+
+		if (parser.getBoolean("local")) {
+			final int threads = parser.hasOption("threads") ? parser.getInt("threads") : Runtime.getRuntime().availableProcessors();
+			final LocalKMeans local = new LocalKMeans(conf, k, threads, maxIterations, tolerance);
+			if ("parallel".equals(init)) {
+				local.setParallelSeeding(seedingRounds, oversampling);
+			}
+			local.run(inputDir, new Path(outputDir));
+			return 0;
+		}
 
 		// input/output dirs
+		final Path dictionary = new Path(outputDir, "dictionary");
 		final Path norm = new Path(outputDir, "norm");
 		final Path cache = new Path(outputDir, "cache");
 		final Path means = new Path(outputDir, "means");
 		final Path clusters = new Path(outputDir, "clusters");
 
-		// run the normalize job
+		// build the dictionaries, then run the normalize job on their ids
+		if (!runDictionary(inputDir, dictionary)) return 1;
 		final Job normalizeJob = prepareNormalizeJob(k, inputDir, norm);
-		if (!normalizeJob.waitForCompletion(true)) return 1;
+		if (!waitForCompletion(normalizeJob)) return 1;
+		moveDocuments(norm, new Path(conf.get(DocumentDictionary.PATH)));
+
+		// execute the clustering iterations until the centroids settle
+		initDistributedCache(k, cache, norm);
+		if ("parallel".equals(init) && !runSeeding(k, seedingRounds, oversampling, cache, norm, new Path(outputDir, "seeding"))) return 1;
+		final ClusteringMetrics metrics = new ClusteringMetrics(hdfs, new Path(outputDir));
+		final boolean clustered;
+		if (parser.getBoolean("in-memory")) {
+			clustered = runInMemoryClustering(k, maxIterations, tolerance, norm, means, new Path(outputDir, "sync"), new Path(outputDir));
+		} else if (bounds) {
+			clustered = runBoundedClustering(k, maxIterations, tolerance, cache, norm, means, new Path(outputDir, "bounds"), metrics);
+		} else {
+			clustered = runClustering(k, maxIterations, tolerance, sampleRate, cache, norm, means, metrics);
+		}
+		if (!clustered) return 1;
+
+		// run the final clustering job to output the results
+		updateDistributedCache(k, cache, means);
+		final Job clusterOutputJob = prepareClusterOutputJob(k, norm, clusters);
+		return waitForCompletion(clusterOutputJob) ? 0 : 1;
+	}
+
+	/** Submit the job and wait for its completion, overridden to measure the jobs. */
+	protected boolean waitForCompletion(Job job) throws Exception {
+		return job.waitForCompletion(true);
+	}
+
+	/** Run the dictionary job and write the term dictionary and the base ids of the input splits. */
+	private boolean runDictionary(Path input, Path dictionaryDir) throws Exception {
+		final Path frequencies = new Path(dictionaryDir, "frequencies");
+		final Job job = prepareDictionaryJob(input, frequencies);
+		if (!waitForCompletion(job)) return false;
+
+		// read the document frequencies of the terms
+		final List<Long> terms = new ArrayList<Long>();
+		final List<Long> counts = new ArrayList<Long>();
+		final Map<String, Long> documents = new HashMap<String, Long>();
+		final LongWritable term = new LongWritable();
+		final LongWritable count = new LongWritable();
+		for (FileStatus status : hdfs.listStatus(frequencies)) {
+			final String name = status.getPath().getName();
+			if (name.startsWith("part")) {
+				final SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(status.getPath()));
+				try {
+					while (reader.next(term, count)) {
+						terms.add(term.get());
+						counts.add(count.get());
+					}
+				} finally {
+					reader.close();
+				}
+			} else if (name.startsWith("splits")) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(status.getPath()), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int tab = line.lastIndexOf('\t');
+						documents.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		hdfs.delete(frequencies, true);
+
+		final Path termsFile = new Path(dictionaryDir, "terms");
+		TermDictionary.create(ArrayUtils.toPrimitive(terms.toArray(new Long[terms.size()])), ArrayUtils.toPrimitive(counts.toArray(new Long[counts.size()]))).write(hdfs, termsFile);
+		final Path splitsFile = new Path(dictionaryDir, "splits");
+		final long total = DocumentDictionary.writeSplits(hdfs, splitsFile, documents);
+		System.out.printf("dictionary: %d terms, %d documents%n", terms.size(), total);
+
+		conf.set(TermDictionary.PATH, termsFile.toString());
+		conf.set(DocumentDictionary.SPLITS, splitsFile.toString());
+		conf.set(DocumentDictionary.PATH, new Path(dictionaryDir, "documents").toString());
+		return true;
+	}
+
+	/** Move the map files of the documents out of the normalized vectors into the dictionary. */
+	private void moveDocuments(Path normDir, Path documentsDir) throws IOException {
+		if (hdfs.exists(documentsDir)) {
+			hdfs.delete(documentsDir, true);
+		}
+		hdfs.mkdirs(documentsDir);
+		for (FileStatus status : hdfs.listStatus(normDir)) {
+			if (status.getPath().getName().startsWith("documents")) {
+				hdfs.rename(status.getPath(), new Path(documentsDir, status.getPath().getName()));
+			}
+		}
+	}
 
-		// run the first clustering job
-		initDistributedCache(cache, norm);
-		Job clusteringJob = prepareClusteringJob(k, norm, means);
-		if (!clusteringJob.waitForCompletion(true)) return 1;
+	/** Run the clustering jobs one iteration after another, each on a mini-batch if the sample rate is below one. */
+	private boolean runClustering(int k, int maxIterations, double tolerance, double sampleRate, Path cache, Path norm, Path means, ClusteringMetrics metrics) throws Exception {
+		final long[] centerCounts = new long[k];
+		int[] sizes = null;
+		for (int i = 1; i <= maxIterations; i++) {
+			final long start = System.currentTimeMillis();
+			if (i > 1) {
+				updateDistributedCache(k, cache, means);
+			}
+			final Job clusteringJob = prepareClusteringJob(k, norm, means, sizes);
+			if (sampleRate < 1.0) {
+				clusteringJob.getConfiguration().setDouble(ClusteringMapper.SAMPLE_RATE, sampleRate);
+				clusteringJob.getConfiguration().setLong(ClusteringMapper.SAMPLE_SEED, i);
+				clusteringJob.getConfiguration().set(ClusteringReducer.CENTER_COUNTS, StringUtils.join(ArrayUtils.toObject(centerCounts), ','));
+			}
+			if (!waitForCompletion(clusteringJob)) return false;
+
+			// check the convergence
+			double shift = clusteringJob.getCounters().findCounter(ClusteringCounter.CENTROID_SHIFT).getValue() / ClusteringCounter.SHIFT_SCALE;
+			shift += mergeShardedClusters(k, clusteringJob, cache, means);
+			final double discarded = clusteringJob.getCounters().findCounter(ClusteringCounter.DISCARDED_MASS).getValue() / ClusteringCounter.SHIFT_SCALE + mergedDiscardedMass;
+			final int[] newSizes = readClusterSizes(k, means);
+			final long reassigned = reassignedAtLeast(sizes, newSizes);
+			System.out.printf("iteration %d: centroid shift %g, reassigned at least %d documents%n", i, shift, reassigned);
+			metrics.add(i, System.currentTimeMillis() - start, clusteringJob, shift, discarded, reassigned, newSizes, Centroids.load(hdfs, means, "part-", conf, k));
+			sizes = newSizes;
+			for (int j = 0; j < k; j++) {
+				centerCounts[j] += newSizes[j];
+			}
+			if (shift <= tolerance) break;
+		}
+		return true;
+	}
+
+	/** Run the clustering jobs passing the bounds of the distances of each vector from one iteration to the next. */
+	private boolean runBoundedClustering(int k, int maxIterations, double tolerance, Path cache, Path norm, Path means, Path boundsDir, ClusteringMetrics metrics) throws Exception {
+		VectorWritable[] previous = null;
+		int[] sizes = null;
+		Path input = norm;
+		for (int i = 1; i <= maxIterations; i++) {
+			final long start = System.currentTimeMillis();
+			if (i > 1) {
+				updateDistributedCache(k, cache, means);
+			}
+			final VectorWritable[] current = Centroids.load(hdfs, cache, conf, k);
+			final Job clusteringJob = prepareClusteringJob(k, input, means, sizes);
+			clusteringJob.setMapperClass(BoundedClusteringMapper.class);
+			MultipleOutputs.addNamedOutput(clusteringJob, "bounds", SequenceFileOutputFormat.class, IntWritable.class, BoundedVectorWritable.class);
+			if (previous != null) {
+				final double[] drifts = BoundedClusteringMapper.drifts(previous, current);
+				clusteringJob.getConfiguration().set(BoundedClusteringMapper.DRIFTS, StringUtils.join(ArrayUtils.toObject(drifts), ','));
+			}
+			if (!waitForCompletion(clusteringJob)) return false;
+			previous = current;
+
+			// the vectors with the new bounds are the input of the next iteration
+			final Path bounds = new Path(boundsDir, "iteration-" + i);
+			hdfs.mkdirs(bounds);
+			for (FileStatus status : hdfs.listStatus(means)) {
+				if (status.getPath().getName().startsWith("bounds")) {
+					hdfs.rename(status.getPath(), new Path(bounds, status.getPath().getName()));
+				}
+			}
+			if (input != norm) {
+				hdfs.delete(input, true);
+			}
+			input = bounds;
+
+			// check the convergence
+			double shift = clusteringJob.getCounters().findCounter(ClusteringCounter.CENTROID_SHIFT).getValue() / ClusteringCounter.SHIFT_SCALE;
+			shift += mergeShardedClusters(k, clusteringJob, cache, means);
+			final double discarded = clusteringJob.getCounters().findCounter(ClusteringCounter.DISCARDED_MASS).getValue() / ClusteringCounter.SHIFT_SCALE + mergedDiscardedMass;
+			sizes = readClusterSizes(k, means);
+			final long reassigned = clusteringJob.getCounters().findCounter(ClusteringCounter.REASSIGNED).getValue();
+			final long pruned = clusteringJob.getCounters().findCounter(ClusteringCounter.PRUNED).getValue();
+			System.out.printf("iteration %d: centroid shift %g, reassigned %d documents, pruned %d documents%n", i, shift, reassigned, pruned);
+			metrics.add(i, System.currentTimeMillis() - start, clusteringJob, shift, discarded, reassigned, sizes, Centroids.load(hdfs, means, "part-", conf, k));
+			if (shift <= tolerance) break;
+		}
+		hdfs.delete(boundsDir, true);
+		return true;
+	}
+
+	/** Run all the clustering iterations within a single job keeping the vectors in memory, its first task writes the metrics. */
+	private boolean runInMemoryClustering(int k, int maxIterations, double tolerance, Path norm, Path means, Path sync, Path metricsDir) throws Exception {
+		if (hdfs.exists(sync)) {
+			hdfs.delete(sync, true);
+		}
+
+		final Job job = prepareInMemoryClusteringJob(k, maxIterations, tolerance, norm, means, sync);
+		job.getConfiguration().set(InMemoryClusteringMapper.METRICS_DIR, metricsDir.toString());
+		final boolean completed = waitForCompletion(job);
+		hdfs.delete(sync, true);
+		if (!completed) return false;
+
+		final long iterations = job.getCounters().findCounter(ClusteringCounter.ITERATIONS).getValue();
+		final double shift = job.getCounters().findCounter(ClusteringCounter.CENTROID_SHIFT).getValue() / ClusteringCounter.SHIFT_SCALE;
+		System.out.printf("%d iterations in memory: centroid shift %g%n", iterations, shift);
+		return true;
+	}
 
-		// execute other clustering jobs iteratively
+	/** Replace the seeds by the k-means|| seeding, starting from the first random seed of the normalize job. */
+	private boolean runSeeding(int k, int rounds, double oversampling, Path cache, Path norm, Path seedingDir) throws Exception {
+		final List<VectorWritable> candidates = new ArrayList<VectorWritable>();
+		for (VectorWritable seed : Centroids.load(hdfs, cache, conf, k)) {
+			if (seed.size() > 0) {
+				candidates.add(seed);
+				break;
+			}
+		}
+		if (candidates.isEmpty()) return true;
+
+		// oversample the candidates, the first pass only computes the cost
+		final long seed = conf.getLong(SeedingMapper.SEED, 0);
+		double cost = 0.0;
+		for (int round = 0; round <= rounds; round++) {
+			writeCacheFile(new Path(cache, "centroid-candidates"), candidates);
+			final Path output = new Path(seedingDir, "round-" + round);
+			final Job job = prepareSeedingJob(candidates.size(), norm, output);
+			job.getConfiguration().setDouble(SeedingMapper.COST, cost);
+			job.getConfiguration().setDouble(SeedingMapper.OVERSAMPLING, oversampling);
+			job.getConfiguration().setLong(SeedingMapper.SEED, seed + round);
+			if (!waitForCompletion(job)) return false;
+
+			cost = job.getCounters().findCounter(SeedingCounter.COST).getValue() / SeedingCounter.COST_SCALE;
+			final int sampled = readSampledCandidates(output, candidates);
+			System.out.printf("seeding round %d: cost %g, sampled %d candidates%n", round, cost, sampled);
+			if (round > 0 && sampled == 0) break;
+		}
+
+		// weight the candidates and reduce them to the k seeds
+		writeCacheFile(new Path(cache, "centroid-candidates"), candidates);
+		final Path output = new Path(seedingDir, "weights");
+		final Job job = prepareSeedingJob(candidates.size(), norm, output);
+		job.getConfiguration().setBoolean(SeedingMapper.WEIGHTS, true);
+		if (!waitForCompletion(job)) return false;
+
+		final VectorWritable[] seeds = Seeding.select(candidates, readCandidateWeights(output, candidates.size()), k, new Random(seed));
+		hdfs.delete(cache, true);
+		hdfs.mkdirs(cache);
+		writeCacheFile(new Path(cache, "centroid-seeds"), Arrays.asList(seeds));
+		hdfs.delete(seedingDir, true);
+		return true;
+	}
+
+	/** Write the <i>cluster \t vector</i> lines of a centroid file and publish its snapshot in the distributed cache. */
+	private void writeCacheFile(Path file, List<VectorWritable> centroids) throws IOException {
+		final Writer writer = new OutputStreamWriter(hdfs.create(file, true), "UTF-8");
+		try {
+			for (int i = 0; i < centroids.size(); i++) {
+				writer.write(i + "\t" + centroids.get(i) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		publishSnapshot(file.getParent(), centroids.toArray(new VectorWritable[centroids.size()]));
+	}
+
+	/** Read the vectors sampled by a seeding job, returning their number. */
+	private int readSampledCandidates(Path outputDir, List<VectorWritable> candidates) throws IOException {
+		int sampled = 0;
+		for (FileStatus status : hdfs.listStatus(outputDir)) {
+			if (status.getPath().getName().startsWith("part")) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(status.getPath()), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						candidates.add(new VectorWritable().parse(line.substring(line.indexOf('\t') + 1)));
+						sampled++;
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return sampled;
+	}
+
+	/** Read the candidate weights written by the last seeding job. */
+	private long[] readCandidateWeights(Path outputDir, int candidates) throws IOException {
+		final long[] weights = new long[candidates];
+		for (FileStatus status : hdfs.listStatus(outputDir)) {
+			if (status.getPath().getName().startsWith("weight")) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(status.getPath())));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] parts = StringUtils.split(line, '\t');
+						weights[Integer.parseInt(parts[0])] += Long.parseLong(parts[1]);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return weights;
+	}
+
+	/** Merge the partial sums of the clusters sharded over several reducers into their means, returning their shift. */
+	private double mergeShardedClusters(int k, Job job, Path cache, Path meansDir) throws IOException {
+		final PartitionPlan plan = PartitionPlan.read(job.getConfiguration(), k, job.getNumReduceTasks());
+		final VectorWritable[] centroids = Centroids.load(hdfs, cache, conf, k);
+		final long[] centerCounts = ClusteringReducer.readCenterCounts(job.getConfiguration(), k);
+
+		mergedDiscardedMass = 0.0;
+		boolean sharded = false;
 		for (int i = 0; i < k; i++) {
-			updateDistributedCache(cache, means);
-			clusteringJob = prepareClusteringJob(k, norm, means);
-			if (!clusteringJob.waitForCompletion(true)) return 1;
+			sharded |= plan.isSharded(i);
 		}
+		if (!sharded) return 0.0;
 
-		// run the final clustering job to output the results
-		updateDistributedCache(cache, means);
-		final Job clusterOutputJob = prepareClusterOutputJob(k, norm, clusters);
-		return clusterOutputJob.waitForCompletion(true) ? 0 : 1;
+		// each reducer writes its partial sums sorted by the cluster, so they are merged one cluster after another
+		final List<Path> files = new ArrayList<Path>();
+		for (FileStatus status : hdfs.listStatus(meansDir)) {
+			if (status.getPath().getName().startsWith("partial")) {
+				files.add(status.getPath());
+			}
+		}
+		final PartialSumReader partials = new PartialSumReader(conf, files.toArray(new Path[files.size()]));
+		final DenseAccumulator sums = ClusteringReducer.createSums(job.getConfiguration());
+		final VectorWritable mean = new VectorWritable();
+
+		// write the merged means next to the ones of the reducers, an empty cluster keeps its mean
+		double shift = 0.0;
+		final Writer meansWriter = new OutputStreamWriter(hdfs.create(new Path(meansDir, "part-merged")), "UTF-8");
+		final Writer sizesWriter = new OutputStreamWriter(hdfs.create(new Path(meansDir, "size-merged")), "UTF-8");
+		try {
+			for (int i = 0; i < k; i++) {
+				if (!plan.isSharded(i)) continue;
+				ClusteringReducer.startMean(sums, centroids, centerCounts, i);
+				final long vectorCount = partials.add(i, sums);
+				if (vectorCount > 0) {
+					ClusteringReducer.finishMean(sums, mean, centerCounts, i, vectorCount);
+					mergedDiscardedMass += ClusteringReducer.truncateMean(mean, job.getConfiguration());
+					shift += VectorUtils.euclideanDistance(centroids[i], mean);
+				} else {
+					mean.copy(centroids[i]);
+				}
+				meansWriter.write(i + "\t" + mean + "\n");
+				sizesWriter.write(i + "\t" + vectorCount + "\n");
+			}
+		} finally {
+			partials.close();
+			meansWriter.close();
+			sizesWriter.close();
+		}
+		for (Path file : files) {
+			hdfs.delete(file, false);
+		}
+		return shift;
+	}
+
+	/** Read the cluster sizes written by the clustering job. */
+	private int[] readClusterSizes(int k, Path meansDir) throws IOException {
+		final int[] sizes = new int[k];
+		for (FileStatus status : hdfs.listStatus(meansDir)) {
+			if (status.getPath().getName().startsWith("size")) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(status.getPath())));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] parts = StringUtils.split(line, '\t');
+						sizes[Integer.parseInt(parts[0])] = Integer.parseInt(parts[1]);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return sizes;
 	}
 
-	/** Initialise the distributed file cache. */
-	private void initDistributedCache(Path cacheDir, Path normDir) throws IOException {
+	/** Lower bound of the number of reassigned documents, given by the change of the cluster sizes. */
+	private static long reassignedAtLeast(int[] oldSizes, int[] newSizes) {
+		if (oldSizes == null) return 0;
+		long change = 0;
+		for (int i = 0; i < newSizes.length; i++) {
+			change += Math.abs(newSizes[i] - oldSizes[i]);
+		}
+		return change / 2;
+	}
+
+	/** Initialise the distributed file cache with the seeds merged from the samples of the normalize job. */
+	private void initDistributedCache(int k, Path cacheDir, Path normDir) throws IOException {
 		// delete cache directory (if it exists)
 		if (hdfs.exists(cacheDir)) {
 			hdfs.delete(cacheDir, true);
 		}
 		hdfs.mkdirs(cacheDir);
 
-		// list all the produced files
-		for (FileStatus status : hdfs.listStatus(normDir)) {
-			Path file = status.getPath();
-			if (file.getName().startsWith("centroid")) {
-				// move each centroid
-				Path cacheFile = new Path(cacheDir, file.getName());
-				hdfs.rename(file, cacheFile);
-				DistributedCache.addCacheFile(cacheFile.toUri(), conf);
+		// read the sample of each task, which must not stay among the normalized vectors
+		final List<List<VectorWritable>> samples = new ArrayList<List<VectorWritable>>();
+		final List<Long> records = new ArrayList<Long>();
+		final CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+		final FileStatus[] statuses = hdfs.listStatus(normDir);
+		Arrays.sort(statuses);
+		for (FileStatus status : statuses) {
+			if (status.getPath().getName().startsWith("sample")) {
+				final List<VectorWritable> sample = new ArrayList<VectorWritable>();
+				long count = 0;
+				// the samples are compressed with the codec of the normalized vectors
+				final CompressionCodec codec = codecs.getCodec(status.getPath());
+				final InputStream in = (codec != null) ? codec.createInputStream(hdfs.open(status.getPath())) : hdfs.open(status.getPath());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int tab = line.indexOf('\t');
+						count = Long.parseLong(line.substring(0, tab));
+						sample.add(new VectorWritable().parse(line.substring(tab + 1)));
+					}
+				} finally {
+					reader.close();
+				}
+				samples.add(sample);
+				records.add(count);
+				hdfs.delete(status.getPath(), false);
 			}
 		}
+
+		final VectorWritable[] seeds = Seeding.mergeSamples(samples, ArrayUtils.toPrimitive(records.toArray(new Long[records.size()])), k, new Random(conf.getLong(NormalizeMapper.SEED, 0)));
+		writeCacheFile(new Path(cacheDir, "centroid-seeds"), Arrays.asList(seeds));
 	}
 
 	/** Update the distributed file cache. */
-	private void updateDistributedCache(Path cacheDir, Path meansDir) throws IOException {
+	private void updateDistributedCache(int k, Path cacheDir, Path meansDir) throws IOException {
 		// delete old cache directory
 		hdfs.delete(cacheDir, true);
 		hdfs.mkdirs(cacheDir);
 
 		// list all the produced files
 		for (FileStatus status : hdfs.listStatus(meansDir)) {
-			// move each centroid
 			Path file = status.getPath();
-			Path cacheFile = new Path(cacheDir, file.getName().replace("part", "centroid"));
-			hdfs.rename(file, cacheFile);
-			DistributedCache.addCacheFile(cacheFile.toUri(), conf);
+			if (file.getName().startsWith("part")) {
+				// move each centroid
+				Path cacheFile = new Path(cacheDir, file.getName().replace("part", "centroid"));
+				hdfs.rename(file, cacheFile);
+			}
 		}
+		publishSnapshot(cacheDir, Centroids.load(hdfs, cacheDir, conf, k));
+	}
+
+	/** Write all the centroids into a single binary snapshot, which becomes the only file of the distributed cache. */
+	private void publishSnapshot(Path cacheDir, VectorWritable[] centroids) throws IOException {
+		final Path snapshot = new Path(cacheDir, CentroidSnapshot.NAME);
+		CentroidSnapshot.write(hdfs, snapshot, centroids);
+		DistributedCache.setCacheFiles(new URI[]{snapshot.toUri()}, conf);
+		conf.set(Centroids.VERSION, UUID.randomUUID().toString());
 	}
 
 	/** Create and setup the clustering job. */
-	private Job prepareClusteringJob(int k, Path input, Path output) throws IOException {
+	private Job prepareClusteringJob(int k, Path input, Path output, int[] sizes) throws IOException {
 		final Job job = new Job(conf, "Clustering");
 
-		job.setNumReduceTasks(k);
+		// plan the clusters onto the reducers by their sizes in the previous iteration
+		job.setNumReduceTasks(reducers);
+		job.getConfiguration().setInt(Centroids.K, k);
+		PartitionPlan.create(sizes, k, reducers).write(job.getConfiguration());
 
 		// set MarReduce classes
 		job.setJarByClass(ClusteringMapper.class);
 		job.setMapperClass(ClusteringMapper.class);
 		job.setReducerClass(ClusteringReducer.class);
-		job.setPartitionerClass(ClusteringPartitioner.class);
+		job.setPartitionerClass(PlanPartitioner.class);
+
+		// set the key-value classes
+		job.setMapOutputKeyClass(IntWritable.class);
+		job.setMapOutputValueClass(PartialSumWritable.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(Text.class);
+
+		// setup input and multiple outputs
+		FileInputFormat.addInputPath(job, input);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		FileOutputFormat.setOutputPath(job, output);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		MultipleOutputs.addNamedOutput(job, "size", TextOutputFormat.class, IntWritable.class, IntWritable.class);
+		MultipleOutputs.addNamedOutput(job, "partial", SequenceFileOutputFormat.class, IntWritable.class, PartialSumWritable.class);
+
+		// delete output directory (if it exists)
+		if (hdfs.exists(output)) {
+			hdfs.delete(output, true);
+		}
+
+		return job;
+	}
+
+	/** Create and setup a seeding job. */
+	private Job prepareSeedingJob(int candidates, Path input, Path output) throws IOException {
+		final Job job = new Job(conf, "Seeding");
+
+		job.setNumReduceTasks(0);
+		job.getConfiguration().setInt(Centroids.K, candidates);
+
+		// set MarReduce classes
+		job.setJarByClass(SeedingMapper.class);
+		job.setMapperClass(SeedingMapper.class);
+
+		// set the key-value classes
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(Text.class);
+
+		// setup input and multiple outputs
+		FileInputFormat.addInputPath(job, input);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		FileOutputFormat.setOutputPath(job, output);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		MultipleOutputs.addNamedOutput(job, "weight", TextOutputFormat.class, IntWritable.class, LongWritable.class);
+
+		// delete output directory (if it exists)
+		if (hdfs.exists(output)) {
+			hdfs.delete(output, true);
+		}
+
+		return job;
+	}
+
+	/** Create and setup the in-memory clustering job. */
+	private Job prepareInMemoryClusteringJob(int k, int maxIterations, double tolerance, Path input, Path output, Path sync) throws IOException {
+		final Job job = new Job(conf, "InMemoryClustering");
+
+		job.setNumReduceTasks(0);
+		job.setSpeculativeExecution(false);
+		job.getConfiguration().setInt(Centroids.K, k);
+		job.getConfiguration().setInt(InMemoryClusteringMapper.MAX_ITERATIONS, maxIterations);
+		job.getConfiguration().setDouble(InMemoryClusteringMapper.TOLERANCE, tolerance);
+		job.getConfiguration().set(InMemoryClusteringMapper.SYNC_DIR, sync.toString());
+
+		// set MarReduce classes
+		job.setJarByClass(InMemoryClusteringMapper.class);
+		job.setMapperClass(InMemoryClusteringMapper.class);
 
 		// set the key-value classes
-		job.setMapOutputKeyClass(ClusterKeyWritable.class);
-		job.setMapOutputValueClass(VectorWritable.class);
 		job.setOutputKeyClass(IntWritable.class);
 		job.setOutputValueClass(Text.class);
 
 		// setup input and output
 		FileInputFormat.addInputPath(job, input);
-		job.setInputFormatClass(KeyValueTextInputFormat.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
 		FileOutputFormat.setOutputPath(job, output);
 		job.setOutputFormatClass(TextOutputFormat.class);
 
+		// let the local job runner run all the maps at once as well
+		final int splits = new SequenceFileInputFormat<IntWritable, VectorWritable>().getSplits(job).size();
+		job.getConfiguration().setInt("mapreduce.local.map.tasks.maximum", splits);
+
 		// delete output directory (if it exists)
 		if (hdfs.exists(output)) {
 			hdfs.delete(output, true);
@@ -161,20 +730,20 @@ public class Main extends Configured implements Tool {
 		job.setNumReduceTasks(k);
 
 		// set MarReduce classes
-		job.setJarByClass(ClusteringMapper.class);
-		job.setMapperClass(ClusteringMapper.class);
+		job.setJarByClass(ClusterOutputMapper.class);
+		job.setMapperClass(ClusterOutputMapper.class);
 		job.setReducerClass(ClusterOutputReducer.class);
 		job.setPartitionerClass(ClusteringPartitioner.class);
 
 		// set the key-value classes
 		job.setMapOutputKeyClass(ClusterKeyWritable.class);
-		job.setMapOutputValueClass(VectorWritable.class);
+		job.setMapOutputValueClass(DoubleWritable.class);
 		job.setOutputKeyClass(IntWritable.class);
 		job.setOutputValueClass(Text.class);
 
 		// setup input and output
 		FileInputFormat.addInputPath(job, input);
-		job.setInputFormatClass(KeyValueTextInputFormat.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
 		FileOutputFormat.setOutputPath(job, output);
 		job.setOutputFormatClass(TextOutputFormat.class);
 		MultipleOutputs.addNamedOutput(job, "centroid", TextOutputFormat.class, IntWritable.class, Text.class);
@@ -188,30 +757,60 @@ public class Main extends Configured implements Tool {
 		return job;
 	}
 
-	/** Create and setup the normalize job. */
+	/** Create and setup the dictionary job. */
+	private Job prepareDictionaryJob(Path input, Path output) throws IOException {
+		final Job job = new Job(conf, "Dictionary");
+
+		job.setNumReduceTasks(dictionaryReducers);
+
+		// set MarReduce classes
+		job.setJarByClass(DictionaryMapper.class);
+		job.setMapperClass(DictionaryMapper.class);
+		job.setCombinerClass(LongSumReducer.class);
+		job.setReducerClass(LongSumReducer.class);
+
+		// set the key-value classes
+		job.setOutputKeyClass(LongWritable.class);
+		job.setOutputValueClass(LongWritable.class);
+
+		// setup input and multiple outputs
+		FileInputFormat.addInputPath(job, input);
+		job.setInputFormatClass(KeyValueTextInputFormat.class);
+		FileOutputFormat.setOutputPath(job, output);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		MultipleOutputs.addNamedOutput(job, "splits", TextOutputFormat.class, Text.class, LongWritable.class);
+
+		// delete output directory (if it exists)
+		if (hdfs.exists(output)) {
+			hdfs.delete(output, true);
+		}
+
+		return job;
+	}
+
+	/** Create and setup the map-only normalize job. */
 	private Job prepareNormalizeJob(int k, Path input, Path output) throws IOException {
 		final Job job = new Job(conf, "Normalize");
 
-		job.setNumReduceTasks(k);
+		job.setNumReduceTasks(0);
+		job.getConfiguration().setInt(Centroids.K, k);
 
 		// set MarReduce classes
 		job.setJarByClass(NormalizeMapper.class);
 		job.setMapperClass(NormalizeMapper.class);
-		job.setReducerClass(NormalizeReducer.class);
-		job.setPartitionerClass(HashPartitioner.class);
 
 		// set the key-value classes
-		job.setMapOutputKeyClass(Text.class);
-		job.setMapOutputValueClass(VectorWritable.class);
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(VectorWritable.class);
 
 		// setup input and multiple outputs
 		FileInputFormat.addInputPath(job, input);
 		job.setInputFormatClass(KeyValueTextInputFormat.class);
 		FileOutputFormat.setOutputPath(job, output);
-		job.setOutputFormatClass(TextOutputFormat.class);
-		MultipleOutputs.addNamedOutput(job, "centroid", TextOutputFormat.class, IntWritable.class, Text.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		setCompression(job);
+		MultipleOutputs.addNamedOutput(job, "sample", TextOutputFormat.class, LongWritable.class, Text.class);
+		MultipleOutputs.addNamedOutput(job, "documents", MapFileOutputFormat.class, IntWritable.class, Text.class);
 
 		// delete output directory (if it exists)
 		if (hdfs.exists(output)) {
@@ -221,4 +820,28 @@ public class Main extends Configured implements Tool {
 		return job;
 	}
 
+	/** Setup the block compression of the sequence file output. */
+	private void setCompression(Job job) {
+		final Class<? extends CompressionCodec> codec;
+		if ("none".equals(compression)) {
+			return;
+		} else if ("deflate".equals(compression)) {
+			codec = DefaultCodec.class;
+		} else if ("gzip".equals(compression)) {
+			codec = GzipCodec.class;
+		} else if ("bzip2".equals(compression)) {
+			codec = BZip2Codec.class;
+		} else if ("snappy".equals(compression)) {
+			codec = SnappyCodec.class;
+		} else if ("lz4".equals(compression)) {
+			codec = Lz4Codec.class;
+		} else {
+			throw new IllegalArgumentException("unknown compression: " + compression);
+		}
+
+		FileOutputFormat.setCompressOutput(job, true);
+		FileOutputFormat.setOutputCompressorClass(job, codec);
+		SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+	}
+
 }
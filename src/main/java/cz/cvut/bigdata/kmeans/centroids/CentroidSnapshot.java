@@ -0,0 +1,135 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All the centroids of an iteration in a single binary file, which the
+ * tasks map into memory instead of parsing k text files. The file starts
+ * with a header of the magic number, the number of the centroids and then
+ * the size and the offset of each centroid. The entries of a centroid are
+ * its sorted indices followed by its values, so any centroid is read with
+ * two bulk copies without touching the others. The file is mapped in chunks
+ * of whole centroids, as a single mapping is limited to 2 GB.
+ */
+public class CentroidSnapshot {
+
+	/** Name of the snapshot file in the distributed cache. */
+	public static final String NAME = "means.snapshot";
+
+	private static final int MAGIC = 0x4b4d4331;
+	private static final int HEADER_BYTES = 8;
+	private static final int ENTRY_BYTES = 12;
+
+	private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+	private final MappedByteBuffer[] chunks;
+	private final int[] sizes;
+	private final int[] chunkOf;
+	private final int[] positions;
+
+	private CentroidSnapshot(MappedByteBuffer[] chunks, int[] sizes, int[] chunkOf, int[] positions) {
+		this.chunks = chunks;
+		this.sizes = sizes;
+		this.chunkOf = chunkOf;
+		this.positions = positions;
+	}
+
+	/** Map the local snapshot file into memory. */
+	public static CentroidSnapshot map(File file) throws IOException {
+		return map(file, MAX_CHUNK_BYTES);
+	}
+
+	/** Map the snapshot in chunks of at most the given number of bytes. */
+	static CentroidSnapshot map(File file, long maxChunkBytes) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mappings stay valid after the channel is closed
+			final FileChannel channel = raf.getChannel();
+			if (raf.length() < HEADER_BYTES || raf.readInt() != MAGIC) {
+				throw new IOException("not a centroid snapshot");
+			}
+			final int count = raf.readInt();
+			final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) ENTRY_BYTES * count);
+
+			// the centroids follow each other, a chunk ends before the centroid which would not fit into it
+			final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+			final int[] sizes = new int[count];
+			final int[] chunkOf = new int[count];
+			final int[] positions = new int[count];
+			long start = 0, end = 0;
+			for (int c = 0; c < count; c++) {
+				sizes[c] = header.getInt(ENTRY_BYTES * c);
+				final long offset = header.getLong(ENTRY_BYTES * c + 4);
+				final long bytes = 16L * sizes[c];
+				if (bytes > maxChunkBytes) {
+					throw new IOException("centroid " + c + " of " + sizes[c] + " entries exceeds a single mapping");
+				}
+				if (c == 0 || offset + bytes - start > maxChunkBytes) {
+					if (c > 0) chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+					start = offset;
+				}
+				end = offset + bytes;
+				chunkOf[c] = chunks.size();
+				positions[c] = (int) (offset - start);
+			}
+			if (count > 0) chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+			return new CentroidSnapshot(chunks.toArray(new MappedByteBuffer[chunks.size()]), sizes, chunkOf, positions);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Write the snapshot of the given centroids. */
+	public static void write(FileSystem fs, Path file, VectorWritable[] centroids) throws IOException {
+		final FSDataOutputStream out = fs.create(file, true);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(centroids.length);
+			long offset = HEADER_BYTES + (long) ENTRY_BYTES * centroids.length;
+			for (VectorWritable centroid : centroids) {
+				out.writeInt(centroid.size());
+				out.writeLong(offset);
+				offset += 16L * centroid.size();
+			}
+			for (VectorWritable centroid : centroids) {
+				for (int i = 0; i < centroid.size(); i++) {
+					out.writeLong(centroid.indexAt(i));
+				}
+				for (int i = 0; i < centroid.size(); i++) {
+					out.writeDouble(centroid.valueAt(i));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public int size() {
+		return sizes.length;
+	}
+
+	/** Read the given centroid into the vector. */
+	public void get(int centroid, VectorWritable vector) {
+		final MappedByteBuffer buffer = chunks[chunkOf[centroid]];
+		final int size = sizes[centroid];
+		final int offset = positions[centroid];
+
+		final ByteBuffer entries = buffer.duplicate();
+		entries.position(offset);
+		final ByteBuffer values = buffer.duplicate();
+		values.position(offset + 8 * size);
+		vector.read(entries.asLongBuffer(), values.asDoubleBuffer(), size);
+	}
+}
@@ -0,0 +1,83 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Read-only set of centroids used in the assignment step, with the squared
+ * norm of each centroid computed once when the store is built.
+ */
+public abstract class CentroidStore {
+
+	/** Kind of the store: <i>auto</i>, <i>dense</i>, <i>direct</i> (dense off the heap), <i>inverted</i> or <i>sparse</i>. */
+	public static final String STORE = "kmeans.centroids.store";
+	/** Maximal size of the dense matrix, a quarter of the task heap by default. */
+	public static final String DENSE_MAX_BYTES = "kmeans.centroids.dense.max.bytes";
+
+	protected final int k;
+	protected final double[] squaredNorms;
+
+	protected CentroidStore(VectorWritable[] centroids) {
+		k = centroids.length;
+		squaredNorms = new double[k];
+		for (int i = 0; i < k; i++) {
+			squaredNorms[i] = VectorUtils.squaredNorm(centroids[i]);
+		}
+	}
+
+	/**
+	 * Create the store configured for the job, falling back to the inverted index if the dense matrix is too large.
+	 * A forced dense store fails if its matrix cannot be indexed by an int.
+	 */
+	public static CentroidStore create(VectorWritable[] centroids, Configuration conf) {
+		final String store = conf.get(STORE, "auto");
+		if ("sparse".equals(store)) {
+			return new SparseCentroidStore(centroids);
+		}
+		if ("direct".equals(store) && DirectCentroidStore.fits(centroids)) {
+			return new DirectCentroidStore(centroids);
+		}
+		if ("inverted".equals(store) || "direct".equals(store)) {
+			return new InvertedCentroidStore(centroids, conf.getDouble(InvertedCentroidStore.PRUNE_THRESHOLD, 0.0));
+		}
+
+		final long maxBytes = conf.getLong(DENSE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 4);
+		if ("dense".equals(store) || DenseCentroidStore.fits(centroids, maxBytes)) {
+			return new DenseCentroidStore(centroids);
+		}
+		return new InvertedCentroidStore(centroids, conf.getDouble(InvertedCentroidStore.PRUNE_THRESHOLD, 0.0));
+	}
+
+	public int size() {
+		return k;
+	}
+
+	public double squaredNorm(int centroid) {
+		return squaredNorms[centroid];
+	}
+
+	/** Similarity (the dot product) of the vector with the given centroid. */
+	public abstract double similarity(int centroid, VectorWritable vector);
+
+	/** Fill the similarities of the vector with all the centroids. */
+	public abstract void similarities(VectorWritable vector, double[] similarity);
+
+	/** Squared Euclidean distance of the vector with the given squared norm to the given centroid. */
+	public double squaredDistance(int centroid, VectorWritable vector, double vectorSquaredNorm) {
+		final double distance = vectorSquaredNorm + squaredNorms[centroid] - 2.0 * similarity(centroid, vector);
+		return (distance > 0.0) ? distance : 0.0;
+	}
+
+	/** Find the most similar centroid, the first one wins a tie. */
+	public int nearest(VectorWritable vector, double[] similarity) {
+		similarities(vector, similarity);
+		int cluster = 0;
+		for (int i = 0; i < k; i++) {
+			if (similarity[i] > similarity[cluster]) {
+				cluster = i;
+			}
+		}
+		return cluster;
+	}
+}
@@ -0,0 +1,177 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Loading of the current centroids from the distributed cache, either from
+ * the binary {@link CentroidSnapshot} or from the <i>cluster \t vector</i>
+ * text files.
+ * <p/>
+ * The centroids of the {@link #VERSION} given by the driver are kept for
+ * all the tasks run by the same JVM, e.g. in the local or the uber mode,
+ * together with their store. The cached vectors are shared, so the tasks
+ * must not modify them.
+ */
+public class Centroids {
+
+	/** Number of the centroids, for the tasks which cannot take it from the number of reducers. */
+	public static final String K = "kmeans.k";
+	/** Unique id of the published centroids, nothing is cached without it. */
+	public static final String VERSION = "kmeans.centroids.version";
+
+	private static String cachedKey, cachedStoreKey;
+	private static VectorWritable[] cachedCentroids;
+	private static CentroidStore cachedStore;
+
+	private Centroids() { }
+
+	/** Load all the centroids, a missing centroid is returned as an empty vector. */
+	public static synchronized VectorWritable[] load(Configuration conf, int k) throws IOException {
+		final String key = (conf.get(VERSION) != null) ? conf.get(VERSION) + "/" + k : null;
+		if (key != null && key.equals(cachedKey)) {
+			return cachedCentroids.clone();
+		}
+
+		final VectorWritable[] centroids = read(conf, k);
+		if (key != null) {
+			cachedKey = key;
+			cachedCentroids = centroids;
+			cachedStore = null;
+		}
+		return centroids.clone();
+	}
+
+	/** Load all the centroids into the store configured for the job. */
+	public static synchronized CentroidStore store(Configuration conf, int k) throws IOException {
+		final VectorWritable[] centroids = load(conf, k);
+		final String storeKey = cachedKey + "/" + conf.get(CentroidStore.STORE) + "/" + conf.get(InvertedCentroidStore.PRUNE_THRESHOLD);
+		if (conf.get(VERSION) != null && cachedStore != null && storeKey.equals(cachedStoreKey)) {
+			return cachedStore;
+		}
+
+		final CentroidStore store = CentroidStore.create(centroids, conf);
+		if (conf.get(VERSION) != null) {
+			cachedStoreKey = storeKey;
+			cachedStore = store;
+		}
+		return store;
+	}
+
+	/** Read all the centroids from the distributed cache. */
+	private static VectorWritable[] read(Configuration conf, int k) throws IOException {
+		final VectorWritable[] centroids = new VectorWritable[k];
+
+		final CentroidSnapshot snapshot = snapshot(conf);
+		if (snapshot != null) {
+			for (int i = 0; i < Math.min(k, snapshot.size()); i++) {
+				centroids[i] = new VectorWritable();
+				snapshot.get(i, centroids[i]);
+			}
+			return fill(centroids);
+		}
+
+		final Path[] cacheFiles = DistributedCache.getLocalCacheFiles(conf);
+		if (cacheFiles != null) {
+			for (Path cacheFile : cacheFiles) {
+				if (cacheFile.getName().startsWith("centroid")) {
+					read(FileSystem.getLocal(conf), new Path(cacheFile.toUri().getPath()), centroids, conf);
+				}
+			}
+		}
+		return fill(centroids);
+	}
+
+	/** Load a single centroid, reading only that one from the snapshot. The vector is a copy, which the task may modify. */
+	public static VectorWritable load(Configuration conf, int k, int centroid) throws IOException {
+		final CentroidSnapshot snapshot = snapshot(conf);
+		final VectorWritable vector = new VectorWritable();
+		if (snapshot == null) {
+			// the loaded centroids may be the cached ones
+			vector.copy(load(conf, k)[centroid]);
+			return vector;
+		}
+
+		if (centroid < snapshot.size()) {
+			snapshot.get(centroid, vector);
+		}
+		return vector;
+	}
+
+	/** Map the snapshot of the centroids if there is one in the distributed cache. */
+	private static CentroidSnapshot snapshot(Configuration conf) throws IOException {
+		final Path[] cacheFiles = DistributedCache.getLocalCacheFiles(conf);
+		if (cacheFiles != null) {
+			for (Path cacheFile : cacheFiles) {
+				if (cacheFile.getName().equals(CentroidSnapshot.NAME)) {
+					return CentroidSnapshot.map(new File(cacheFile.toUri().getPath()));
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Load all the centroids from the <i>centroid*</i> files of the given directory. */
+	public static VectorWritable[] load(FileSystem fs, Path dir, Configuration conf, int k) throws IOException {
+		return load(fs, dir, "centroid", conf, k);
+	}
+
+	/** Load all the centroids from the files of the given directory starting with the prefix. */
+	public static VectorWritable[] load(FileSystem fs, Path dir, String prefix, Configuration conf, int k) throws IOException {
+		final VectorWritable[] centroids = new VectorWritable[k];
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (status.getPath().getName().startsWith(prefix)) {
+				read(fs, status.getPath(), centroids, conf);
+			}
+		}
+		return fill(centroids);
+	}
+
+	/** Replace the missing centroids with empty vectors. */
+	private static VectorWritable[] fill(VectorWritable[] centroids) {
+		for (int i = 0; i < centroids.length; i++) {
+			if (centroids[i] == null) {
+				centroids[i] = new VectorWritable();
+			}
+		}
+		return centroids;
+	}
+
+	/** Read the <i>cluster \t vector</i> lines of a centroid file, which may be compressed. */
+	private static void read(FileSystem fs, Path file, VectorWritable[] centroids, Configuration conf) throws IOException {
+		InputStream in = fs.open(file);
+		final CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+		if (codec != null) {
+			in = codec.createInputStream(in);
+		}
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = StringUtils.split(line, '\t');
+				if (parts.length == 0) continue;
+				VectorWritable centroid = new VectorWritable();
+				if (parts.length > 1) {
+					centroid.parse(parts[1]);
+				}
+				centroids[Integer.parseInt(parts[0])] = centroid;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
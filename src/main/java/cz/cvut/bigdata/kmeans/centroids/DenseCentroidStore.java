@@ -0,0 +1,75 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+/**
+ * Centroids kept as a dense term-major matrix, so the weights of all the
+ * centroids for one term are adjacent. The similarities of a document with
+ * all the centroids then cost a single pass over its non-zero entries.
+ */
+public class DenseCentroidStore extends CentroidStore {
+
+	private final int dimension;
+	private final double[] matrix;
+
+	public DenseCentroidStore(VectorWritable[] centroids) {
+		super(centroids);
+		dimension = dimension(centroids);
+		if ((long) dimension * k >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too large dense matrix: " + dimension + " x " + k);
+		}
+		matrix = new double[dimension * k];
+
+		for (int i = 0; i < k; i++) {
+			VectorWritable centroid = centroids[i];
+			for (int j = 0; j < centroid.size(); j++) {
+				matrix[(int) centroid.indexAt(j) * k + i] = centroid.valueAt(j);
+			}
+		}
+	}
+
+	/** Check whether the dense matrix for the centroids fits into the given number of bytes. */
+	public static boolean fits(VectorWritable[] centroids, long maxBytes) {
+		final long cells = (long) dimension(centroids) * centroids.length;
+		return cells < Integer.MAX_VALUE && cells * 8 <= maxBytes;
+	}
+
+	/** Number of rows of the matrix, i.e. the highest index of any centroid plus one. */
+	static int dimension(VectorWritable[] centroids) {
+		long dimension = 0;
+		for (VectorWritable centroid : centroids) {
+			if (centroid.size() > 0) {
+				dimension = Math.max(dimension, centroid.indexAt(centroid.size() - 1) + 1);
+			}
+		}
+		if (dimension > Integer.MAX_VALUE) throw new IllegalArgumentException("too large dimension: " + dimension);
+		return (int) dimension;
+	}
+
+	@Override
+	public double similarity(int centroid, VectorWritable vector) {
+		double similarity = 0.0;
+		for (int j = 0; j < vector.size(); j++) {
+			long index = vector.indexAt(j);
+			if (index >= dimension) break;
+			similarity += vector.valueAt(j) * matrix[(int) index * k + centroid];
+		}
+		return similarity;
+	}
+
+	@Override
+	public void similarities(VectorWritable vector, double[] similarity) {
+		for (int i = 0; i < k; i++) {
+			similarity[i] = 0.0;
+		}
+		for (int j = 0; j < vector.size(); j++) {
+			long index = vector.indexAt(j);
+			if (index >= dimension) break;
+			double value = vector.valueAt(j);
+			int row = (int) index * k;
+			for (int i = 0; i < k; i++) {
+				similarity[i] += value * matrix[row + i];
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * The dense term-major matrix of {@link DenseCentroidStore} kept in a direct
+ * buffer off the heap, so a large matrix neither inflates the task heap nor
+ * gets copied around by the garbage collector.
+ */
+public class DirectCentroidStore extends CentroidStore {
+
+	private final int dimension;
+	private final DoubleBuffer matrix;
+
+	public DirectCentroidStore(VectorWritable[] centroids) {
+		super(centroids);
+		dimension = DenseCentroidStore.dimension(centroids);
+		if (8L * dimension * k > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too large direct matrix: " + dimension + " x " + k);
+		}
+		matrix = ByteBuffer.allocateDirect(dimension * k * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+
+		for (int i = 0; i < k; i++) {
+			VectorWritable centroid = centroids[i];
+			for (int j = 0; j < centroid.size(); j++) {
+				matrix.put((int) centroid.indexAt(j) * k + i, centroid.valueAt(j));
+			}
+		}
+	}
+
+	/** Check whether the matrix for the centroids fits into a single direct buffer. */
+	public static boolean fits(VectorWritable[] centroids) {
+		return (long) DenseCentroidStore.dimension(centroids) * centroids.length * 8 <= Integer.MAX_VALUE;
+	}
+
+	@Override
+	public double similarity(int centroid, VectorWritable vector) {
+		double similarity = 0.0;
+		for (int j = 0; j < vector.size(); j++) {
+			long index = vector.indexAt(j);
+			if (index >= dimension) break;
+			similarity += vector.valueAt(j) * matrix.get((int) index * k + centroid);
+		}
+		return similarity;
+	}
+
+	@Override
+	public void similarities(VectorWritable vector, double[] similarity) {
+		for (int i = 0; i < k; i++) {
+			similarity[i] = 0.0;
+		}
+		for (int j = 0; j < vector.size(); j++) {
+			long index = vector.indexAt(j);
+			if (index >= dimension) break;
+			double value = vector.valueAt(j);
+			int row = (int) index * k;
+			for (int i = 0; i < k; i++) {
+				similarity[i] += value * matrix.get(row + i);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+import java.util.Arrays;
+
+/**
+ * Centroids kept as an inverted index from term to the postings of
+ * <i>(centroid, weight)</i> pairs. The similarities of a document are
+ * gathered only from the postings of its own terms, so centroids sharing
+ * no term with the document cost nothing beyond clearing their score.
+ * <p/>
+ * Weights below the pruning threshold are left out of the index. As the
+ * documents are normalized to unit sum, this changes no similarity by
+ * more than the threshold itself.
+ */
+public class InvertedCentroidStore extends CentroidStore {
+
+	/** Weights below this threshold are pruned from the index, nothing is pruned by default. */
+	public static final String PRUNE_THRESHOLD = "kmeans.centroids.prune.threshold";
+
+	private final long[] terms;
+	private final int[] offsets;
+	private final int[] postingCentroids;
+	private final double[] postingWeights;
+	private final int prunedPostings;
+
+	public InvertedCentroidStore(VectorWritable[] centroids, double pruneThreshold) {
+		super(centroids);
+
+		// collect the distinct terms of all the centroids
+		int postings = 0, pruned = 0;
+		for (VectorWritable centroid : centroids) {
+			for (int j = 0; j < centroid.size(); j++) {
+				if (centroid.valueAt(j) < pruneThreshold) {
+					pruned++;
+				} else {
+					postings++;
+				}
+			}
+		}
+		final long[] all = new long[postings];
+		int n = 0;
+		for (VectorWritable centroid : centroids) {
+			for (int j = 0; j < centroid.size(); j++) {
+				if (centroid.valueAt(j) >= pruneThreshold) {
+					all[n++] = centroid.indexAt(j);
+				}
+			}
+		}
+		Arrays.sort(all);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || all[i] != all[i - 1]) {
+				all[distinct++] = all[i];
+			}
+		}
+		terms = Arrays.copyOf(all, distinct);
+		prunedPostings = pruned;
+
+		// count the postings of each term and lay them out one term after another
+		offsets = new int[distinct + 1];
+		for (VectorWritable centroid : centroids) {
+			for (int j = 0; j < centroid.size(); j++) {
+				if (centroid.valueAt(j) >= pruneThreshold) {
+					offsets[Arrays.binarySearch(terms, centroid.indexAt(j)) + 1]++;
+				}
+			}
+		}
+		for (int t = 0; t < distinct; t++) {
+			offsets[t + 1] += offsets[t];
+		}
+		postingCentroids = new int[postings];
+		postingWeights = new double[postings];
+		final int[] fill = Arrays.copyOf(offsets, distinct);
+		for (int i = 0; i < k; i++) {
+			VectorWritable centroid = centroids[i];
+			for (int j = 0; j < centroid.size(); j++) {
+				if (centroid.valueAt(j) >= pruneThreshold) {
+					int position = fill[Arrays.binarySearch(terms, centroid.indexAt(j))]++;
+					postingCentroids[position] = i;
+					postingWeights[position] = centroid.valueAt(j);
+				}
+			}
+		}
+	}
+
+	/** Number of centroid weights left out of the index by the pruning. */
+	public int getPrunedPostings() {
+		return prunedPostings;
+	}
+
+	@Override
+	public double similarity(int centroid, VectorWritable vector) {
+		double similarity = 0.0;
+		int from = 0;
+		for (int j = 0; j < vector.size() && from < terms.length; j++) {
+			int t = Arrays.binarySearch(terms, from, terms.length, vector.indexAt(j));
+			if (t < 0) {
+				from = -(t + 1);
+				continue;
+			}
+			from = t + 1;
+			for (int p = offsets[t]; p < offsets[t + 1]; p++) {
+				if (postingCentroids[p] == centroid) {
+					similarity += vector.valueAt(j) * postingWeights[p];
+					break;
+				}
+			}
+		}
+		return similarity;
+	}
+
+	@Override
+	public void similarities(VectorWritable vector, double[] similarity) {
+		Arrays.fill(similarity, 0, k, 0.0);
+		int from = 0;
+		for (int j = 0; j < vector.size() && from < terms.length; j++) {
+			int t = Arrays.binarySearch(terms, from, terms.length, vector.indexAt(j));
+			if (t < 0) {
+				from = -(t + 1);
+				continue;
+			}
+			from = t + 1;
+			double value = vector.valueAt(j);
+			for (int p = offsets[t]; p < offsets[t + 1]; p++) {
+				similarity[postingCentroids[p]] += value * postingWeights[p];
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+/**
+ * Centroids kept as sparse vectors and scored one centroid at a time.
+ */
+public class SparseCentroidStore extends CentroidStore {
+
+	private final VectorWritable[] centroids;
+
+	public SparseCentroidStore(VectorWritable[] centroids) {
+		super(centroids);
+		this.centroids = centroids;
+	}
+
+	@Override
+	public double similarity(int centroid, VectorWritable vector) {
+		return VectorUtils.cosineSimilarity(centroids[centroid], vector);
+	}
+
+	@Override
+	public void similarities(VectorWritable vector, double[] similarity) {
+		for (int i = 0; i < k; i++) {
+			similarity[i] = VectorUtils.cosineSimilarity(centroids[i], vector);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.centroids.CentroidStore;
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Base of the mappers assigning each vector to its nearest centroid.
+ */
+public abstract class AssignmentMapper<KEYOUT, VALUEOUT> extends Mapper<IntWritable, VectorWritable, KEYOUT, VALUEOUT> {
+
+	protected int k;
+	protected CentroidStore centroids;
+	private double[] similarity;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		k = conf.getInt(Centroids.K, context.getNumReduceTasks());
+
+		// load current centroids from the distributed cache
+		centroids = Centroids.store(conf, k);
+		similarity = new double[k];
+	}
+
+	/** Find the nearest centroid (with cosine similarity). */
+	protected int assign(VectorWritable vector) {
+		return centroids.nearest(vector, similarity);
+	}
+
+	/** Similarity of the last assigned vector with the given centroid. */
+	protected double similarity(int centroid) {
+		return similarity[centroid];
+	}
+
+}
@@ -0,0 +1,181 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Clustering mapper skipping the centroids which cannot win by the
+ * triangle inequality (Hamerly's algorithm). The nearest centroid is the
+ * most similar one, which is the nearest one in the Euclidean sense once
+ * every centroid gets an extra coordinate <i>sqrt(M^2 - |c|^2)</i>, where
+ * <i>M</i> is the largest norm of the centroids. The bounds are kept in
+ * this augmented space.
+ * <p/>
+ * Each vector carries its cluster, an upper bound of the distance to its
+ * centroid and a lower bound of the distance to any other one. Both are
+ * moved by the drifts of the centroids given by the driver, and unless the
+ * upper bound exceeds the lower one (or half of the distance to the nearest
+ * other centroid) the vector keeps its cluster without computing a single
+ * similarity. The vectors with the updated bounds are written to the
+ * <i>bounds</i> output, which is the input of the next iteration.
+ */
+public class BoundedClusteringMapper extends ClusteringMapper {
+
+	/** Distances the centroids moved in the augmented space since the previous iteration. */
+	public static final String DRIFTS = "kmeans.bounds.drifts";
+
+	private final BoundedVectorWritable bounded = new BoundedVectorWritable();
+
+	private MultipleOutputs outputs;
+	private double maxSquaredNorm;
+	private double[] drifts, otherDrifts, halfGaps, similarity;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		super.setup(context);
+		final Configuration conf = context.getConfiguration();
+		outputs = new MultipleOutputs(context);
+		bounded.setConf(conf);
+		similarity = new double[k];
+
+		final double[] squaredNorms = new double[k];
+		for (int i = 0; i < k; i++) {
+			squaredNorms[i] = centroids.squaredNorm(i);
+		}
+		maxSquaredNorm = maxSquaredNorm(squaredNorms);
+
+		// the largest drift of the other centroids, for each centroid
+		drifts = new double[k];
+		final String[] values = conf.getStrings(DRIFTS);
+		for (int i = 0; values != null && i < values.length; i++) {
+			drifts[i] = Double.parseDouble(values[i]);
+		}
+		otherDrifts = new double[k];
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				if (j != i) otherDrifts[i] = Math.max(otherDrifts[i], drifts[j]);
+			}
+		}
+
+		// half of the distance to the nearest other centroid
+		final VectorWritable[] means = Centroids.load(conf, k);
+		halfGaps = new double[k];
+		Arrays.fill(halfGaps, Double.POSITIVE_INFINITY);
+		for (int i = 0; i < k; i++) {
+			for (int j = i + 1; j < k; j++) {
+				double gap = 0.5 * augmentedDistance(VectorUtils.squaredEuclideanDistance(means[i], means[j]), squaredNorms[i], squaredNorms[j], maxSquaredNorm, maxSquaredNorm);
+				halfGaps[i] = Math.min(halfGaps[i], gap);
+				halfGaps[j] = Math.min(halfGaps[j], gap);
+			}
+		}
+	}
+
+	@Override
+	protected void map(IntWritable key, VectorWritable vector, Context context) throws IOException, InterruptedException {
+		int cluster = -1;
+		double upper = 0.0, lower = 0.0;
+		if (vector instanceof BoundedVectorWritable) {
+			final BoundedVectorWritable previous = (BoundedVectorWritable) vector;
+			cluster = previous.getCluster();
+			upper = previous.getUpper();
+			lower = previous.getLower();
+		}
+
+		final double squaredNorm = VectorUtils.squaredNorm(vector);
+		boolean pruned = false;
+		if (cluster >= 0) {
+			upper += drifts[cluster];
+			lower = Math.max(0.0, lower - otherDrifts[cluster]);
+			final double bound = Math.max(lower, halfGaps[cluster]);
+			if (upper > bound) {
+				// tighten the upper bound by the exact distance
+				upper = distance(centroids.similarity(cluster, vector), squaredNorm);
+			}
+			pruned = (upper <= bound);
+		}
+
+		if (pruned) {
+			// the upper bound of the distance gives a lower bound of the similarity
+			context.getCounter(ClusteringCounter.PRUNED).increment(1);
+			objective += 0.5 * (squaredNorm + maxSquaredNorm - upper * upper);
+		} else {
+			// compare with all the centroids, the most similar is the nearest one
+			centroids.similarities(vector, similarity);
+			int nearest = 0;
+			for (int i = 1; i < k; i++) {
+				if (similarity[i] > similarity[nearest]) nearest = i;
+			}
+			double second = -Double.MAX_VALUE;
+			for (int i = 0; i < k; i++) {
+				if (i != nearest && similarity[i] > second) second = similarity[i];
+			}
+
+			if (cluster >= 0 && cluster != nearest) {
+				context.getCounter(ClusteringCounter.REASSIGNED).increment(1);
+			}
+			cluster = nearest;
+			objective += similarity[nearest];
+			upper = distance(similarity[nearest], squaredNorm);
+			lower = (k > 1) ? distance(second, squaredNorm) : Double.POSITIVE_INFINITY;
+		}
+
+		add(cluster, vector, context);
+		bounded.copy(vector);
+		bounded.setBounds(cluster, upper, lower);
+		final long start = System.nanoTime();
+		outputs.write("bounds", key, bounded);
+		writeNanos += System.nanoTime() - start;
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		super.cleanup(context);
+		outputs.close();
+	}
+
+	/** Distance of the vector to a centroid in the augmented space, given their similarity. */
+	private double distance(double similarity, double squaredNorm) {
+		final double distance = squaredNorm + maxSquaredNorm - 2.0 * similarity;
+		return (distance > 0.0) ? Math.sqrt(distance) : 0.0;
+	}
+
+	/** Largest of the squared norms, which defines the augmented space. */
+	public static double maxSquaredNorm(double[] squaredNorms) {
+		double max = 0.0;
+		for (double squaredNorm : squaredNorms) {
+			max = Math.max(max, squaredNorm);
+		}
+		return max;
+	}
+
+	/** Distance of two centroids in the augmented spaces given by the squared norms <i>M1^2</i> and <i>M2^2</i>. */
+	public static double augmentedDistance(double squaredDistance, double squaredNorm1, double squaredNorm2, double maxSquaredNorm1, double maxSquaredNorm2) {
+		final double extra = Math.sqrt(Math.max(0.0, maxSquaredNorm1 - squaredNorm1)) - Math.sqrt(Math.max(0.0, maxSquaredNorm2 - squaredNorm2));
+		return Math.sqrt(squaredDistance + extra * extra);
+	}
+
+	/** Distances the centroids moved in the augmented space, which itself may have changed. */
+	public static double[] drifts(VectorWritable[] previous, VectorWritable[] current) {
+		final double[] previousNorms = new double[previous.length];
+		final double[] currentNorms = new double[current.length];
+		for (int i = 0; i < current.length; i++) {
+			previousNorms[i] = VectorUtils.squaredNorm(previous[i]);
+			currentNorms[i] = VectorUtils.squaredNorm(current[i]);
+		}
+		final double previousMax = maxSquaredNorm(previousNorms);
+		final double currentMax = maxSquaredNorm(currentNorms);
+
+		final double[] drifts = new double[current.length];
+		for (int i = 0; i < current.length; i++) {
+			drifts[i] = augmentedDistance(VectorUtils.squaredEuclideanDistance(previous[i], current[i]), previousNorms[i], currentNorms[i], previousMax, currentMax);
+		}
+		return drifts;
+	}
+}
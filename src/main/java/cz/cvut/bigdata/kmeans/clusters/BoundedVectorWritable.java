@@ -0,0 +1,54 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Normalized vector together with its current cluster and the bounds of
+ * its distances to the centroids, see {@link BoundedClusteringMapper}.
+ */
+public class BoundedVectorWritable extends VectorWritable {
+
+	private int cluster = -1;
+	private double upper, lower;
+
+	public int getCluster() {
+		return cluster;
+	}
+
+	/** Upper bound of the distance to the centroid of its cluster. */
+	public double getUpper() {
+		return upper;
+	}
+
+	/** Lower bound of the distance to any other centroid. */
+	public double getLower() {
+		return lower;
+	}
+
+	public void setBounds(int cluster, double upper, double lower) {
+		this.cluster = cluster;
+		this.upper = upper;
+		this.lower = lower;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		WritableUtils.writeVInt(out, cluster);
+		out.writeDouble(upper);
+		out.writeDouble(lower);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		cluster = WritableUtils.readVInt(in);
+		upper = in.readDouble();
+		lower = in.readDouble();
+	}
+}
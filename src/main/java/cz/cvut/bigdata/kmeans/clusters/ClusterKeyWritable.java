@@ -1,19 +1,29 @@
 package cz.cvut.bigdata.kmeans.clusters;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+/**
+ * Key of the cluster output, i.e. the cluster and the id of the document.
+ * Both are written as the fixed ints, so the serialized keys are compared
+ * as two ints without being read back.
+ */
 public class ClusterKeyWritable implements WritableComparable<ClusterKeyWritable> {
 
+	static {
+		WritableComparator.define(ClusterKeyWritable.class, new Comparator());
+	}
+
 	private int cluster = 0;
-	private String term = null;
+	private int document = 0;
 
-	public void set(int cluster, String term) {
+	public void set(int cluster, int document) {
 		this.cluster = cluster;
-		this.term = term;
+		this.document = document;
 	}
 
 	public int getCluster() {
@@ -24,31 +34,31 @@ public class ClusterKeyWritable implements WritableComparable<ClusterKeyWritable
 		this.cluster = cluster;
 	}
 
-	public String getTerm() {
-		return term;
+	public int getDocument() {
+		return document;
 	}
 
-	public void setTerm(String term) {
-		this.term = term;
+	public void setDocument(int document) {
+		this.document = document;
 	}
 
 	@Override
 	public void write(DataOutput out) throws IOException {
 		out.writeInt(cluster);
-		out.writeUTF(term);
+		out.writeInt(document);
 	}
 
 	@Override
 	public void readFields(DataInput in) throws IOException {
 		cluster = in.readInt();
-		term = in.readUTF();
+		document = in.readInt();
 	}
 
 	@Override
 	public int compareTo(ClusterKeyWritable o) {
 		if (o == null) return -1;
-		final int val = (cluster < o.cluster) ? -1 : ((cluster == o.cluster) ? 0 : 1);
-		return (val != 0) ? val : ((term == null) ? 1 : term.compareTo(o.term));
+		if (cluster != o.cluster) return (cluster < o.cluster) ? -1 : 1;
+		return (document < o.document) ? -1 : ((document == o.document) ? 0 : 1);
 	}
 
 	@Override
@@ -57,16 +67,34 @@ public class ClusterKeyWritable implements WritableComparable<ClusterKeyWritable
 		if (!(o instanceof ClusterKeyWritable)) return false;
 
 		final ClusterKeyWritable that = (ClusterKeyWritable) o;
-		return cluster == that.cluster && ((term != null) ? term.equals(that.term) : that.term == null);
+		return cluster == that.cluster && document == that.document;
 	}
 
 	@Override
 	public int hashCode() {
-		return 31 * cluster + (term != null ? term.hashCode() : 0);
+		return 31 * cluster + document;
 	}
 
 	@Override
 	public String toString() {
-		return String.format("%s[%d]", (term != null) ? term : "", cluster);
+		return String.format("%d[%d]", document, cluster);
+	}
+
+	/** Compares the serialized keys directly in the same order as {@link #compareTo}. */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(ClusterKeyWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			final int cluster1 = readInt(b1, s1), cluster2 = readInt(b2, s2);
+			if (cluster1 != cluster2) {
+				return (cluster1 < cluster2) ? -1 : 1;
+			}
+			final int document1 = readInt(b1, s1 + 4), document2 = readInt(b2, s2 + 4);
+			return (document1 < document2) ? -1 : ((document1 == document2) ? 0 : 1);
+		}
 	}
 }
@@ -0,0 +1,23 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+
+import java.io.IOException;
+
+public class ClusterOutputMapper extends AssignmentMapper<ClusterKeyWritable, DoubleWritable> {
+
+	private final ClusterKeyWritable clusterKey = new ClusterKeyWritable();
+	private final DoubleWritable similarity = new DoubleWritable();
+
+	@Override
+	protected void map(IntWritable key, VectorWritable vector, Context context) throws IOException, InterruptedException {
+		// emit the document with its similarity to the reducer of its nearest centroid
+		final int nearest = assign(vector);
+		clusterKey.set(nearest, key.get());
+		similarity.set(similarity(nearest));
+		context.write(clusterKey, similarity);
+	}
+
+}
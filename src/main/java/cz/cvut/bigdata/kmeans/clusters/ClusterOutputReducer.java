@@ -1,61 +1,61 @@
 package cz.cvut.bigdata.kmeans.clusters;
 
-import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.dictionary.DocumentDictionary;
+import cz.cvut.bigdata.kmeans.dictionary.TermDictionary;
 import cz.cvut.bigdata.kmeans.vector.VectorWritable;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.TreeSet;
 
-public class ClusterOutputReducer extends Reducer<ClusterKeyWritable, VectorWritable, IntWritable, Text> {
+/**
+ * Writes the documents of each cluster, the centroid and the prototypes of
+ * the cluster, i.e. the documents most similar to its centroid. The ids of
+ * the documents and of the terms are translated back here only.
+ */
+public class ClusterOutputReducer extends Reducer<ClusterKeyWritable, DoubleWritable, IntWritable, Text> {
 
 	private final IntWritable cluster = new IntWritable();
 	private final Text term = new Text();
 
 	private MultipleOutputs outputs;
+	private DocumentDictionary documents;
 	private VectorWritable mean;
 
 	private int k;
 	private TreeSet<Prototype> prototypes;
 
 	@Override
-	public void setup(Context context) {
+	public void setup(Context context) throws IOException {
 		outputs = new MultipleOutputs(context);
+		documents = DocumentDictionary.open(context.getConfiguration());
 		k = context.getNumReduceTasks();
 		prototypes = new TreeSet<Prototype>();
 	}
 
 	@Override
-	protected void reduce(ClusterKeyWritable key, Iterable<VectorWritable> values, Context context) throws IOException, InterruptedException {
+	protected void reduce(ClusterKeyWritable key, Iterable<DoubleWritable> values, Context context) throws IOException, InterruptedException {
 		if (mean == null) {
 			// load the mean from the distributed cache
-			final Path[] cacheFiles = DistributedCache.getLocalCacheFiles(context.getConfiguration());
-			for (Path cacheFile : cacheFiles) {
-				if (cacheFile.getName().startsWith("centroid")) {
-					String content = IOUtils.toString(new FileReader(cacheFile.toString()));
-					String[] parts = StringUtils.split(content, '\t');
-					if (Integer.parseInt(parts[0]) == key.getCluster()) {
-						mean = new VectorWritable().parse(parts[1]);
-
-						// write the centroid
-						cluster.set(key.getCluster());
-						outputs.write("centroid", cluster, new Text(mean.toString()));
-						break;
-					}
-				}
+			mean = Centroids.load(context.getConfiguration(), k, key.getCluster());
+
+			// write the centroid with the terms in place of their ids
+			final TermDictionary terms = TermDictionary.load(context.getConfiguration());
+			if (terms != null) {
+				terms.toTerms(mean);
 			}
+			cluster.set(key.getCluster());
+			outputs.write("centroid", cluster, new Text(mean.toString()));
 		}
 
-		// add the vector as a prototype
-		final Prototype prototype = new Prototype(key.getTerm(), VectorUtils.cosineSimilarity(mean, values.iterator().next()));
+		// look the document up, it is added as a prototype
+		term.set(documents.get(key.getDocument()));
+		final Prototype prototype = new Prototype(term.toString(), values.iterator().next().get());
 		prototypes.add(prototype);
 		if (prototypes.size() > k) {
 			// remove the one with the lowest similarity
@@ -63,7 +63,6 @@ public class ClusterOutputReducer extends Reducer<ClusterKeyWritable, VectorWrit
 		}
 
 		// emit the term with its cluster
-		term.set(key.getTerm());
 		context.write(cluster, term);
 	}
 
@@ -75,6 +74,7 @@ public class ClusterOutputReducer extends Reducer<ClusterKeyWritable, VectorWrit
 			outputs.write("prototype", cluster, term);
 		}
 		outputs.close();
+		documents.close();
 	}
 
 	public static class Prototype implements Comparable<Prototype> {
@@ -0,0 +1,40 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+/**
+ * Counters reported by the clustering job.
+ */
+public enum ClusteringCounter {
+
+	/** Sum of the Euclidean distances the centroids moved, in units of {@link #SHIFT_SCALE}. */
+	CENTROID_SHIFT,
+
+	/** Number of documents assigned to the clusters. */
+	DOCUMENTS,
+
+	/** Number of iterations run within a single in-memory job. */
+	ITERATIONS,
+
+	/** Number of documents which moved to another cluster, counted with the bounds only. */
+	REASSIGNED,
+
+	/** Number of documents kept in their clusters by the bounds without comparing them with all the centroids. */
+	PRUNED,
+
+	/** Sum of the similarities of the documents to their centroids (a lower bound with the bounds), in units of {@link #SHIFT_SCALE}. */
+	OBJECTIVE,
+
+	/** Milliseconds the map tasks spent reading and deserializing the vectors. */
+	READ_MILLIS,
+
+	/** Milliseconds the map tasks spent assigning and summing the vectors. */
+	ASSIGN_MILLIS,
+
+	/** Milliseconds the map tasks spent emitting the partial sums and the other outputs. */
+	WRITE_MILLIS,
+
+	/** Sum of the values dropped from the new centroids by their truncation, in units of {@link #SHIFT_SCALE}. */
+	DISCARDED_MASS;
+
+	/** Scale of the fixed-point counter values. */
+	public static final double SHIFT_SCALE = 1e9;
+}
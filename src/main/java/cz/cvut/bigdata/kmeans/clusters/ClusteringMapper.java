@@ -1,60 +1,134 @@
 package cz.cvut.bigdata.kmeans.clusters;
 
-import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.SparseAccumulator;
 import cz.cvut.bigdata.kmeans.vector.VectorWritable;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Mapper;
-
-import java.io.FileReader;
+import org.apache.hadoop.io.IntWritable;
+
 import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Assigns the vectors to the nearest centroids and sums them per cluster
+ * within the task, so only the partial sums are shuffled to the reducers.
+ * In the mini-batch mode only a random sample of the vectors is assigned.
+ */
+public class ClusteringMapper extends AssignmentMapper<IntWritable, PartialSumWritable> {
+
+	/** Number of summed entries held in memory before the partial sums are flushed. */
+	public static final String MAX_ENTRIES = "kmeans.combine.max.entries";
+	/** Fraction of the vectors sampled into the mini-batch of each iteration, all of them by default. */
+	public static final String SAMPLE_RATE = "kmeans.minibatch.sample.rate";
+	/** Seed of the sampling, which should differ between the iterations. */
+	public static final String SAMPLE_SEED = "kmeans.minibatch.seed";
 
-public class ClusteringMapper extends Mapper<Text, Text, ClusterKeyWritable, VectorWritable> {
+	private final IntWritable slot = new IntWritable();
+	private final PartialSumWritable partial = new PartialSumWritable();
 
-	private final ClusterKeyWritable clusterKey = new ClusterKeyWritable();
-	private final VectorWritable vector = new VectorWritable();
+	private SparseAccumulator[] sums;
+	private int[] counts;
+	private long entries, maxEntries;
+	private double sampleRate;
+	private Random random;
+	private PartitionPlan plan;
+	private int task, flushes;
 
-	private int k;
-	private VectorWritable[] centroids;
+	/** Sum of the similarities of the assigned vectors. */
+	protected double objective;
+	/** Nanoseconds spent writing the outputs, counted apart from the assignment. */
+	protected long writeNanos;
 
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException {
-		k = context.getNumReduceTasks();
-		centroids = new VectorWritable[k];
-
-		// load current centroids from the distributed cache
-		final Path[] cacheFiles = DistributedCache.getLocalCacheFiles(context.getConfiguration());
-		for (Path cacheFile : cacheFiles) {
-			if (cacheFile.getName().startsWith("centroid")) {
-				String content = IOUtils.toString(new FileReader(cacheFile.toString()));
-				String[] parts = StringUtils.split(content, '\t');
-				centroids[Integer.parseInt(parts[0])] = new VectorWritable().parse(parts[1]);
+		super.setup(context);
+		partial.setConf(context.getConfiguration());
+		sums = new SparseAccumulator[k];
+		counts = new int[k];
+		entries = 0;
+		maxEntries = context.getConfiguration().getLong(MAX_ENTRIES, 1 << 21);
+		sampleRate = context.getConfiguration().getDouble(SAMPLE_RATE, 1.0);
+		task = context.getTaskAttemptID().getTaskID().getId();
+		random = new Random(context.getConfiguration().getLong(SAMPLE_SEED, 0) * 31 + task);
+		plan = PartitionPlan.read(context.getConfiguration(), k, context.getNumReduceTasks());
+		flushes = 0;
+		objective = 0.0;
+		writeNanos = 0;
+	}
+
+	/** Run the task as the mapper does, timing the reading of the input, the assignment and the output apart. */
+	@Override
+	public void run(Context context) throws IOException, InterruptedException {
+		setup(context);
+		long readNanos = 0, assignNanos = 0;
+		try {
+			long mapNanos = 0;
+			long start = System.nanoTime();
+			while (context.nextKeyValue()) {
+				final long read = System.nanoTime();
+				map(context.getCurrentKey(), context.getCurrentValue(), context);
+				final long mapped = System.nanoTime();
+				readNanos += read - start;
+				mapNanos += mapped - read;
+				start = mapped;
 			}
+			readNanos += System.nanoTime() - start;
+			// only the flushes within the map calls are taken out, the final one of the cleanup is timed apart
+			assignNanos = mapNanos - writeNanos;
+		} finally {
+			cleanup(context);
 		}
+		context.getCounter(ClusteringCounter.READ_MILLIS).increment(readNanos / 1000000);
+		context.getCounter(ClusteringCounter.ASSIGN_MILLIS).increment(assignNanos / 1000000);
+		context.getCounter(ClusteringCounter.WRITE_MILLIS).increment(writeNanos / 1000000);
 	}
 
 	@Override
-	protected void map(Text key, Text value, Context context) throws IOException, InterruptedException {
-		vector.parse(value.toString());
+	protected void map(IntWritable key, VectorWritable vector, Context context) throws IOException, InterruptedException {
+		if (sampleRate < 1.0 && random.nextDouble() >= sampleRate) return;
 
-		// find the nearest centroid (with cosine similarity)
-		final double[] similarity = new double[k];
-		for (int i = 0; i < k; i++) {
-			similarity[i] = VectorUtils.cosineSimilarity(centroids[i], vector);
+		// add the vector to the partial sum of its nearest centroid
+		final int nearest = assign(vector);
+		objective += similarity(nearest);
+		add(nearest, vector, context);
+	}
+
+	/** Add the vector to the partial sum of the given cluster. */
+	protected void add(int nearest, VectorWritable vector, Context context) throws IOException, InterruptedException {
+		if (sums[nearest] == null) {
+			sums[nearest] = new SparseAccumulator();
 		}
-		int cluster = 0;
+		final int size = sums[nearest].size();
+		sums[nearest].add(vector);
+		counts[nearest]++;
+
+		entries += sums[nearest].size() - size;
+		if (entries > maxEntries) {
+			flush(context);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		flush(context);
+		context.getCounter(ClusteringCounter.OBJECTIVE).increment(Math.round(objective * ClusteringCounter.SHIFT_SCALE));
+	}
+
+	/** Emit the partial sums to the reducers and start over, a sharded cluster goes to one of its shards in turn. */
+	private void flush(Context context) throws IOException, InterruptedException {
+		final long start = System.nanoTime();
 		for (int i = 0; i < k; i++) {
-			if (similarity[i] > similarity[cluster]) {
-				cluster = i;
+			if (counts[i] > 0) {
+				sums[i].toVector(partial.getSum());
+				partial.setCount(counts[i]);
+				slot.set(plan.slot(i, (task + flushes) % plan.shards(i)));
+				context.write(slot, partial);
+
+				sums[i].clear();
+				counts[i] = 0;
 			}
 		}
-
-		// emit the result to appropriate reducer
-		clusterKey.set(cluster, key.toString());
-		context.write(clusterKey, vector);
+		entries = 0;
+		flushes++;
+		writeNanos += System.nanoTime() - start;
 	}
 
 }
@@ -0,0 +1,119 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Timeline of the clustering iterations, written into the <i>metrics.csv</i>
+ * and <i>metrics.json</i> files after each iteration, so it is there even if
+ * the run fails later. Besides the time, the shift, the mass discarded by
+ * the truncation of the centroids and the objective each iteration reports
+ * where its tasks spent the time, how skewed the clusters are and how many
+ * bytes were shuffled. The JSON file adds the size and the number of the
+ * entries of each cluster.
+ */
+public class ClusteringMetrics {
+
+	private static final String CSV_HEADER = "iteration,millis,documents,shift,discarded_mass,objective,reassigned,pruned,"
+			+ "min_size,max_size,size_skew,mean_entries,max_entries,read_millis,assign_millis,write_millis,map_output_bytes,shuffled_bytes\n";
+
+	private final FileSystem fs;
+	private final Path dir;
+	private final StringBuilder csv = new StringBuilder(CSV_HEADER);
+	private final StringBuilder json = new StringBuilder();
+
+	public ClusteringMetrics(FileSystem fs, Path dir) {
+		this.fs = fs;
+		this.dir = dir;
+	}
+
+	/**
+	 * Add an iteration run by the given job and rewrite the files. The number
+	 * of the reassigned documents is exact with the bounds, in memory and in
+	 * the local run, otherwise it is the lower bound given by the change of
+	 * the cluster sizes.
+	 */
+	public void add(int iteration, long millis, Job job, double shift, double discardedMass, long reassigned, int[] sizes, VectorWritable[] centroids) throws IOException {
+		add(iteration, millis, job.getCounters(), shift, discardedMass, reassigned, sizes, centroids);
+	}
+
+	/** Add an iteration given by its counters, which the in-memory and the local runs fill by themselves. */
+	public void add(int iteration, long millis, Counters counters, double shift, double discardedMass, long reassigned, int[] sizes, VectorWritable[] centroids) throws IOException {
+		final double objective = counters.findCounter(ClusteringCounter.OBJECTIVE).getValue() / ClusteringCounter.SHIFT_SCALE;
+		final long pruned = counters.findCounter(ClusteringCounter.PRUNED).getValue();
+		final long readMillis = counters.findCounter(ClusteringCounter.READ_MILLIS).getValue();
+		final long assignMillis = counters.findCounter(ClusteringCounter.ASSIGN_MILLIS).getValue();
+		final long writeMillis = counters.findCounter(ClusteringCounter.WRITE_MILLIS).getValue();
+		final long mapOutputBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+		final long shuffledBytes = counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue();
+
+		// the skew is the largest cluster relative to the mean one
+		int minSize = Integer.MAX_VALUE, maxSize = 0;
+		long totalSize = 0;
+		for (int size : sizes) {
+			minSize = Math.min(minSize, size);
+			maxSize = Math.max(maxSize, size);
+			totalSize += size;
+		}
+		// the counter misses the sharded clusters, which the driver merges
+		final long documents = totalSize;
+		final double skew = (totalSize > 0) ? maxSize * (double) sizes.length / totalSize : 0.0;
+		long totalEntries = 0;
+		int maxEntries = 0;
+		final int[] entries = new int[centroids.length];
+		for (int i = 0; i < centroids.length; i++) {
+			entries[i] = centroids[i].size();
+			totalEntries += entries[i];
+			maxEntries = Math.max(maxEntries, entries[i]);
+		}
+		final double meanEntries = (double) totalEntries / centroids.length;
+
+		csv.append(iteration).append(',').append(millis).append(',').append(documents).append(',')
+				.append(shift).append(',').append(discardedMass).append(',').append(objective).append(',').append(reassigned).append(',').append(pruned).append(',')
+				.append(minSize).append(',').append(maxSize).append(',').append(skew).append(',')
+				.append(meanEntries).append(',').append(maxEntries).append(',')
+				.append(readMillis).append(',').append(assignMillis).append(',').append(writeMillis).append(',')
+				.append(mapOutputBytes).append(',').append(shuffledBytes).append('\n');
+
+		json.append((json.length() == 0) ? "[\n" : ",\n");
+		json.append("{\"iteration\":").append(iteration).append(",\"millis\":").append(millis)
+				.append(",\"documents\":").append(documents).append(",\"shift\":").append(shift)
+				.append(",\"discardedMass\":").append(discardedMass).append(",\"objective\":").append(objective)
+				.append(",\"reassigned\":").append(reassigned).append(",\"pruned\":").append(pruned).append(",\"sizeSkew\":").append(skew)
+				.append(",\"readMillis\":").append(readMillis).append(",\"assignMillis\":").append(assignMillis)
+				.append(",\"writeMillis\":").append(writeMillis).append(",\"mapOutputBytes\":").append(mapOutputBytes)
+				.append(",\"shuffledBytes\":").append(shuffledBytes);
+		appendArray(json.append(",\"sizes\":"), sizes);
+		appendArray(json.append(",\"entries\":"), entries);
+		json.append('}');
+
+		write(new Path(dir, "metrics.csv"), csv.toString());
+		write(new Path(dir, "metrics.json"), json + "\n]\n");
+	}
+
+	private static void appendArray(StringBuilder builder, int[] values) {
+		builder.append('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) builder.append(',');
+			builder.append(values[i]);
+		}
+		builder.append(']');
+	}
+
+	private void write(Path file, String content) throws IOException {
+		final Writer writer = new OutputStreamWriter(fs.create(file, true), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+}
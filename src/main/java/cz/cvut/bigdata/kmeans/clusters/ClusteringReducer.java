@@ -1,57 +1,162 @@
 package cz.cvut.bigdata.kmeans.clusters;
 
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.dictionary.TermDictionary;
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
 import cz.cvut.bigdata.kmeans.vector.VectorUtils;
 import cz.cvut.bigdata.kmeans.vector.VectorWritable;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
-import java.io.FileReader;
 import java.io.IOException;
 
-public class ClusteringReducer extends Reducer<ClusterKeyWritable, VectorWritable, IntWritable, Text> {
+/**
+ * Merges the partial sums of each cluster into its new mean. Besides the
+ * means it writes the size of each cluster to the <i>size</i> output and
+ * counts how far the centroids moved. A cluster sharded over several
+ * reducers by the {@link PartitionPlan} is only summed into the
+ * <i>partial</i> output instead, which the driver merges afterwards.
+ * The sums are accumulated densely over the term ids with the Kahan
+ * summation and thresholded into the sparse mean only once at the end.
+ * The new mean may be truncated to its heaviest terms as well, see
+ * {@link #truncateMean}.
+ * <p/>
+ * In the mini-batch mode each centroid moves towards the mean of its batch
+ * with the learning rate given by the number of the vectors it has seen in
+ * all the batches so far, i.e. it becomes the mean of all these vectors.
+ */
+public class ClusteringReducer extends Reducer<IntWritable, PartialSumWritable, IntWritable, Text> {
 
-	private VectorWritable mean;
-	private int cluster, vectorCount;
+	/** Numbers of the vectors of each cluster in all the previous mini-batches. */
+	public static final String CENTER_COUNTS = "kmeans.minibatch.center.counts";
+	/** Largest number of the terms of a centroid, all of them by default. */
+	public static final String MAX_TERMS = "kmeans.centroids.max.terms";
+	/** Fraction of the mass of a centroid its heaviest terms are kept for, all of it by default. */
+	public static final String MAX_MASS = "kmeans.centroids.max.mass";
+	/** Whether to keep the dense sums off the heap. */
+	public static final String DIRECT_SUMS = "kmeans.reduce.direct.sums";
+
+	private final VectorWritable mean = new VectorWritable();
+	private final Text text = new Text();
+	private final IntWritable size = new IntWritable();
+	private final IntWritable cluster = new IntWritable();
+	private final PartialSumWritable partial = new PartialSumWritable();
+
+	private MultipleOutputs outputs;
+	private DenseAccumulator sums;
+	private PartitionPlan plan;
+	private VectorWritable[] centroids;
+	private boolean[] written;
+	private long[] centerCounts;
+	private Configuration conf;
 
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException {
-		mean = null;
-		cluster = 0;
-		vectorCount = 0;
+		conf = context.getConfiguration();
+		outputs = new MultipleOutputs(context);
+		partial.setConf(conf);
+
+		// load the current means from the distributed cache
+		final int k = conf.getInt(Centroids.K, context.getNumReduceTasks());
+		plan = PartitionPlan.read(conf, k, context.getNumReduceTasks());
+		centroids = Centroids.load(conf, k);
+		written = new boolean[k];
+		centerCounts = readCenterCounts(conf, k);
+		sums = createSums(conf);
 	}
 
 	@Override
-	protected void reduce(ClusterKeyWritable key, Iterable<VectorWritable> values, Context context) throws IOException, InterruptedException {
-		if (mean == null) {
-			// load the mean from the distributed cache
-			final Path[] cacheFiles = DistributedCache.getLocalCacheFiles(context.getConfiguration());
-			for (Path cacheFile : cacheFiles) {
-				if (cacheFile.getName().startsWith("centroid")) {
-					String content = IOUtils.toString(new FileReader(cacheFile.toString()));
-					String[] parts = StringUtils.split(content, '\t');
-					if (Integer.parseInt(parts[0]) == key.getCluster()) {
-						mean = new VectorWritable().parse(parts[1]);
-						cluster = key.getCluster();
-						break;
-					}
-				}
+	protected void reduce(IntWritable key, Iterable<PartialSumWritable> values, Context context) throws IOException, InterruptedException {
+		cluster.set(plan.cluster(key.get()));
+
+		if (plan.isSharded(cluster.get())) {
+			// only sum this shard, the driver merges the shards into the mean
+			sums.clear();
+			int vectorCount = 0;
+			for (PartialSumWritable value : values) {
+				sums.add(value.getSum());
+				vectorCount += value.getCount();
 			}
+			sums.toVector(partial.getSum());
+			partial.setCount(vectorCount);
+			outputs.write("partial", cluster, partial);
+			return;
+		}
+
+		// recompute the mean, starting from the current one
+		startMean(sums, centroids, centerCounts, cluster.get());
+		int vectorCount = 0;
+		for (PartialSumWritable value : values) {
+			sums.add(value.getSum());
+			vectorCount += value.getCount();
 		}
 
-		// recompute the mean
-		VectorUtils.addToMean(mean, values.iterator().next());
-		vectorCount++;
+		// normalize and write the resulting mean
+		finishMean(sums, mean, centerCounts, cluster.get(), vectorCount);
+		final double discarded = truncateMean(mean, conf);
+		context.getCounter(ClusteringCounter.DISCARDED_MASS).increment(Math.round(discarded * ClusteringCounter.SHIFT_SCALE));
+		text.set(mean.toString());
+		context.write(cluster, text);
+		written[cluster.get()] = true;
+
+		// report the size of the cluster and the shift of its centroid
+		size.set(vectorCount);
+		outputs.write("size", cluster, size);
+		final double shift = VectorUtils.euclideanDistance(centroids[cluster.get()], mean);
+		context.getCounter(ClusteringCounter.CENTROID_SHIFT).increment(Math.round(shift * ClusteringCounter.SHIFT_SCALE));
+		context.getCounter(ClusteringCounter.DOCUMENTS).increment(vectorCount);
 	}
 
 	@Override
 	protected void cleanup(Context context) throws IOException, InterruptedException {
-		// normalize and write the resulting mean
-		VectorUtils.normalizeMean(mean, vectorCount);
-		context.write(new IntWritable(cluster), new Text(mean.toString()));
+		// keep the current mean of each empty cluster placed on this reducer, the driver handles the sharded ones
+		final int task = context.getTaskAttemptID().getTaskID().getId();
+		for (int i = 0; i < centroids.length; i++) {
+			if (!written[i] && !plan.isSharded(i) && plan.home(i) == task) {
+				cluster.set(i);
+				text.set(centroids[i].toString());
+				context.write(cluster, text);
+				size.set(0);
+				outputs.write("size", cluster, size);
+			}
+		}
+		outputs.close();
+	}
+
+	/** Read the numbers of the vectors seen in the previous mini-batches, null unless in the mini-batch mode. */
+	public static long[] readCenterCounts(Configuration conf, int k) {
+		if (conf.getDouble(ClusteringMapper.SAMPLE_RATE, 1.0) >= 1.0) return null;
+
+		final long[] centerCounts = new long[k];
+		final String[] counts = conf.getStrings(CENTER_COUNTS);
+		for (int i = 0; counts != null && i < counts.length; i++) {
+			centerCounts[i] = Long.parseLong(counts[i]);
+		}
+		return centerCounts;
+	}
+
+	/** Create the dense sums of the job, spanning the whole vocabulary or growing up to the highest term id seen. */
+	public static DenseAccumulator createSums(Configuration conf) throws IOException {
+		final TermDictionary terms = TermDictionary.load(conf);
+		return new DenseAccumulator((terms != null) ? terms.size() : 0, conf.getBoolean(DIRECT_SUMS, false));
+	}
+
+	/** Start the sums of the new mean from the current one, weighted by all the vectors seen so far in the mini-batch mode. */
+	public static void startMean(DenseAccumulator sums, VectorWritable[] centroids, long[] centerCounts, int cluster) {
+		sums.clear();
+		sums.add(centroids[cluster], (centerCounts != null) ? centerCounts[cluster] : 1.0);
+	}
+
+	/** Truncate the new mean to its heaviest terms by the policy of the job, returning the discarded mass. */
+	public static double truncateMean(VectorWritable mean, Configuration conf) {
+		return VectorUtils.truncate(mean, conf.getInt(MAX_TERMS, Integer.MAX_VALUE), conf.getDouble(MAX_MASS, 1.0));
+	}
+
+	/** Turn the sums of the started mean and of the given number of the vectors into the new mean. */
+	public static void finishMean(DenseAccumulator sums, VectorWritable mean, long[] centerCounts, int cluster, long vectorCount) {
+		sums.toMean(mean, ((centerCounts != null) ? centerCounts[cluster] : 0) + vectorCount);
 	}
 }
@@ -0,0 +1,259 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.centroids.CentroidStore;
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.SparseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map-only task running all the clustering iterations over its split kept
+ * in memory. After each iteration every task publishes the partial sums of
+ * its vectors into a shared directory, waits until all the other tasks did
+ * the same and then merges all of them into the new centroids by itself.
+ * The merge is deterministic, so all the tasks agree on the centroids and
+ * on when to stop. The first task finally writes the centroids, and after
+ * each iteration the metrics if their directory is given. The tasks pass
+ * their objective, assignment time and reassignments along in the metadata
+ * of the partial sums.
+ * <p/>
+ * All the map tasks of the job have to run at the same time, i.e. the
+ * cluster has to offer a slot for each split of the input.
+ */
+public class InMemoryClusteringMapper extends Mapper<IntWritable, VectorWritable, IntWritable, Text> {
+
+	/** Directory used for exchanging the partial sums between the tasks. */
+	public static final String SYNC_DIR = "kmeans.inmemory.sync.dir";
+	public static final String MAX_ITERATIONS = "kmeans.inmemory.max.iterations";
+	public static final String TOLERANCE = "kmeans.inmemory.tolerance";
+	/** Milliseconds to wait for the other tasks in each iteration. */
+	public static final String BARRIER_TIMEOUT = "kmeans.inmemory.barrier.timeout";
+	/** Directory of the metrics written by the first task, none by default. */
+	public static final String METRICS_DIR = "kmeans.inmemory.metrics.dir";
+
+	private static final Text OBJECTIVE = new Text("objective");
+	private static final Text ASSIGN_NANOS = new Text("assign.nanos");
+	private static final Text REASSIGNED = new Text("reassigned");
+
+	private final List<VectorWritable> vectors = new ArrayList<VectorWritable>();
+
+	private int k;
+	private VectorWritable[] centroids;
+	/** Dense sums of the mean being merged. */
+	private DenseAccumulator meanSums;
+	/** Mass discarded by the truncation of the means in the last merge. */
+	private double discardedMass;
+	/** Totals of all the tasks in the last merge. */
+	private int[] sizes;
+	private double objective;
+	private long assignNanos, reassigned, exchangedBytes;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		k = context.getConfiguration().getInt(Centroids.K, 0);
+		centroids = Centroids.load(context.getConfiguration(), k);
+	}
+
+	@Override
+	protected void map(IntWritable key, VectorWritable value, Context context) throws IOException, InterruptedException {
+		// keep a copy of the vector for all the iterations
+		final VectorWritable vector = new VectorWritable();
+		vector.copy(value);
+		vectors.add(vector);
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		final FileSystem fs = FileSystem.get(conf);
+		final Path syncDir = new Path(conf.get(SYNC_DIR));
+		final int maxIterations = conf.getInt(MAX_ITERATIONS, k + 1);
+		final double tolerance = conf.getDouble(TOLERANCE, 0.0);
+		final int tasks = conf.getInt(MRJobConfig.NUM_MAPS, 1);
+		final int task = context.getTaskAttemptID().getTaskID().getId();
+
+		meanSums = ClusteringReducer.createSums(conf);
+		final ClusteringMetrics metrics = (task == 0 && conf.get(METRICS_DIR) != null) ? new ClusteringMetrics(fs, new Path(conf.get(METRICS_DIR))) : null;
+
+		final SparseAccumulator[] sums = new SparseAccumulator[k];
+		final int[] counts = new int[k];
+		final double[] similarity = new double[k];
+		final int[] assignment = new int[vectors.size()];
+		Arrays.fill(assignment, -1);
+
+		for (int i = 1; i <= maxIterations; i++) {
+			// sum the local vectors per cluster
+			final long iterationStart = System.currentTimeMillis();
+			final long start = System.nanoTime();
+			final CentroidStore store = CentroidStore.create(centroids, conf);
+			Arrays.fill(counts, 0);
+			double taskObjective = 0.0;
+			long taskReassigned = 0;
+			for (int j = 0; j < assignment.length; j++) {
+				final VectorWritable vector = vectors.get(j);
+				int nearest = store.nearest(vector, similarity);
+				if (sums[nearest] == null) {
+					sums[nearest] = new SparseAccumulator();
+				}
+				sums[nearest].add(vector);
+				counts[nearest]++;
+				taskObjective += similarity[nearest];
+				if (assignment[j] >= 0 && assignment[j] != nearest) {
+					taskReassigned++;
+				}
+				assignment[j] = nearest;
+			}
+
+			// publish the partial sums and wait for all the other tasks
+			final SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+			metadata.set(OBJECTIVE, new Text(Double.toString(taskObjective)));
+			metadata.set(ASSIGN_NANOS, new Text(Long.toString(System.nanoTime() - start)));
+			metadata.set(REASSIGNED, new Text(Long.toString(taskReassigned)));
+			final Path iterationDir = new Path(syncDir, "iteration-" + i);
+			publish(fs, conf, new Path(iterationDir, String.format("task-%05d", task)), sums, counts, metadata);
+			for (SparseAccumulator sum : sums) {
+				if (sum != null) sum.clear();
+			}
+			final FileStatus[] partials = await(fs, iterationDir, tasks, conf.getLong(BARRIER_TIMEOUT, 10 * 60 * 1000), context);
+
+			// merge all the partial sums into the new means
+			final double shift = merge(conf, partials);
+			if (task == 0) {
+				context.getCounter(ClusteringCounter.ITERATIONS).increment(1);
+				context.getCounter(ClusteringCounter.DISCARDED_MASS).increment(Math.round(discardedMass * ClusteringCounter.SHIFT_SCALE));
+				if (shift <= tolerance || i == maxIterations) {
+					context.getCounter(ClusteringCounter.CENTROID_SHIFT).increment(Math.round(shift * ClusteringCounter.SHIFT_SCALE));
+				}
+			}
+			if (metrics != null) {
+				// the vectors are read once before the iterations and the partial sums are exchanged through files
+				final Counters counters = new Counters();
+				counters.findCounter(ClusteringCounter.OBJECTIVE).setValue(Math.round(objective * ClusteringCounter.SHIFT_SCALE));
+				counters.findCounter(ClusteringCounter.ASSIGN_MILLIS).setValue(assignNanos / 1000000);
+				counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).setValue(exchangedBytes);
+				metrics.add(i, System.currentTimeMillis() - iterationStart, counters, shift, discardedMass, reassigned, sizes, centroids);
+			}
+			if (shift <= tolerance) break;
+		}
+
+		if (task == 0) {
+			// write the resulting means
+			final IntWritable cluster = new IntWritable();
+			final Text text = new Text();
+			for (int i = 0; i < k; i++) {
+				cluster.set(i);
+				text.set(centroids[i].toString());
+				context.write(cluster, text);
+			}
+		}
+	}
+
+	/** Write the partial sums of this task, a re-executed attempt finds them already written. */
+	private void publish(FileSystem fs, Configuration conf, Path file, SparseAccumulator[] sums, int[] counts, SequenceFile.Metadata metadata) throws IOException {
+		if (fs.exists(file)) return;
+
+		final Path tmpFile = new Path(file.getParent(), "_" + file.getName());
+		final SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(tmpFile),
+				SequenceFile.Writer.keyClass(IntWritable.class), SequenceFile.Writer.valueClass(PartialSumWritable.class),
+				SequenceFile.Writer.metadata(metadata));
+		try {
+			final IntWritable cluster = new IntWritable();
+			final PartialSumWritable partial = new PartialSumWritable();
+			partial.setConf(conf);
+			for (int i = 0; i < k; i++) {
+				if (counts[i] > 0) {
+					sums[i].toVector(partial.getSum());
+					partial.setCount(counts[i]);
+					cluster.set(i);
+					writer.append(cluster, partial);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		fs.rename(tmpFile, file);
+	}
+
+	/** Wait until all the tasks published their partial sums, returning them ordered by the task. */
+	private FileStatus[] await(FileSystem fs, Path dir, int tasks, long timeout, Context context) throws IOException, InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			final List<FileStatus> published = new ArrayList<FileStatus>();
+			for (FileStatus status : fs.listStatus(dir)) {
+				if (status.getPath().getName().startsWith("task-")) {
+					published.add(status);
+				}
+			}
+			if (published.size() >= tasks) {
+				final FileStatus[] partials = published.toArray(new FileStatus[published.size()]);
+				Arrays.sort(partials);
+				return partials;
+			}
+
+			if (System.currentTimeMillis() > deadline) {
+				throw new IOException(String.format("only %d of %d tasks reached %s", published.size(), tasks, dir));
+			}
+			context.progress();
+			Thread.sleep(500);
+		}
+	}
+
+	/** Merge the partial sums into the new means, returning the total shift of the centroids. */
+	private double merge(Configuration conf, FileStatus[] partials) throws IOException {
+		final Path[] files = new Path[partials.length];
+		exchangedBytes = 0;
+		for (int i = 0; i < partials.length; i++) {
+			files[i] = partials[i].getPath();
+			exchangedBytes += partials[i].getLen();
+		}
+
+		final PartialSumReader reader = new PartialSumReader(conf, files);
+		double shift = 0.0;
+		try {
+			objective = 0.0;
+			assignNanos = reassigned = 0;
+			for (int i = 0; i < files.length; i++) {
+				final SequenceFile.Metadata metadata = reader.getMetadata(i);
+				objective += Double.parseDouble(metadata.get(OBJECTIVE).toString());
+				assignNanos += Long.parseLong(metadata.get(ASSIGN_NANOS).toString());
+				reassigned += Long.parseLong(metadata.get(REASSIGNED).toString());
+			}
+
+			// each task publishes its partial sums sorted by the cluster, so they are merged one cluster after another
+			discardedMass = 0.0;
+			sizes = new int[k];
+			for (int i = 0; i < k; i++) {
+				// start from the current mean, as the clustering reducer does
+				ClusteringReducer.startMean(meanSums, centroids, null, i);
+				sizes[i] = (int) reader.add(i, meanSums);
+				if (sizes[i] > 0) {
+					final VectorWritable mean = new VectorWritable();
+					ClusteringReducer.finishMean(meanSums, mean, null, i, sizes[i]);
+					discardedMass += ClusteringReducer.truncateMean(mean, conf);
+					shift += VectorUtils.euclideanDistance(centroids[i], mean);
+					centroids[i] = mean;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return shift;
+	}
+}
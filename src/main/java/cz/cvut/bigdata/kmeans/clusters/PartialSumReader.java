@@ -0,0 +1,72 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the partial sums of several files, each sorted by the cluster, one
+ * cluster after another, so a single dense sum merges all the clusters.
+ * The partial sums of a cluster are added in the order of the files.
+ */
+public class PartialSumReader implements Closeable {
+
+	private final Path[] files;
+	private final SequenceFile.Reader[] readers;
+	private final IntWritable[] clusters;
+	private final PartialSumWritable[] partials;
+	/** Whether the reader of the file holds a record not added yet. */
+	private final boolean[] pending;
+
+	public PartialSumReader(Configuration conf, Path[] files) throws IOException {
+		this.files = files;
+		readers = new SequenceFile.Reader[files.length];
+		clusters = new IntWritable[files.length];
+		partials = new PartialSumWritable[files.length];
+		pending = new boolean[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				readers[i] = new SequenceFile.Reader(conf, SequenceFile.Reader.file(files[i]));
+				clusters[i] = new IntWritable();
+				partials[i] = new PartialSumWritable();
+				partials[i].setConf(conf);
+				pending[i] = readers[i].next(clusters[i], partials[i]);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public SequenceFile.Metadata getMetadata(int file) {
+		return readers[file].getMetadata();
+	}
+
+	/** Add the partial sums of the cluster to the sums, returning their number of the vectors. The clusters go in ascending order. */
+	public long add(int cluster, DenseAccumulator sums) throws IOException {
+		long vectorCount = 0;
+		for (int i = 0; i < readers.length; i++) {
+			if (pending[i] && clusters[i].get() < cluster) {
+				throw new IOException("partial sums not sorted by the cluster: " + files[i]);
+			}
+			while (pending[i] && clusters[i].get() == cluster) {
+				sums.add(partials[i].getSum());
+				vectorCount += partials[i].getCount();
+				pending[i] = readers[i].next(clusters[i], partials[i]);
+			}
+		}
+		return vectorCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (SequenceFile.Reader reader : readers) {
+			if (reader != null) reader.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Partial aggregate of a cluster, i.e. the sum of some of its vectors together with their count.
+ */
+public class PartialSumWritable implements Writable, Configurable {
+
+	private final VectorWritable sum = new VectorWritable();
+	private int count = 0;
+
+	@Override
+	public void setConf(Configuration conf) {
+		sum.setConf(conf);
+	}
+
+	@Override
+	public Configuration getConf() {
+		return sum.getConf();
+	}
+
+	public VectorWritable getSum() {
+		return sum;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, count);
+		sum.write(out);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		count = WritableUtils.readVInt(in);
+		sum.readFields(in);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d\t%s", count, sum);
+	}
+}
@@ -0,0 +1,160 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Assignment of the clusters to the reducers of the clustering job, driven
+ * by the cluster sizes of the previous iteration. A cluster larger than the
+ * fair share of a reducer is split into several shards on distinct reducers,
+ * which emit the partial sums merged by the driver afterwards. The other
+ * clusters are packed onto the least loaded reducers.
+ * <p/>
+ * Each shard is a slot, the slots of a cluster follow each other and the
+ * map output keys are the slots rather than the clusters.
+ */
+public class PartitionPlan {
+
+	/** Number of the shards of each cluster. */
+	public static final String SHARDS = "kmeans.partition.shards";
+	/** Reducer of each slot. */
+	public static final String REDUCERS = "kmeans.partition.reducers";
+
+	private final int[] firstSlots;
+	private final int[] slotClusters;
+	private final int[] slotReducers;
+
+	private PartitionPlan(int[] shards, int[] slotReducers) {
+		final int k = shards.length;
+		firstSlots = new int[k + 1];
+		for (int i = 0; i < k; i++) {
+			firstSlots[i + 1] = firstSlots[i] + shards[i];
+		}
+		slotClusters = new int[firstSlots[k]];
+		for (int i = 0; i < k; i++) {
+			Arrays.fill(slotClusters, firstSlots[i], firstSlots[i + 1], i);
+		}
+		this.slotReducers = slotReducers;
+	}
+
+	/** Plan the given clusters onto the reducers, the sizes being unknown in the first iteration. */
+	public static PartitionPlan create(int[] sizes, int k, int reducers) {
+		if (reducers < 1) throw new IllegalArgumentException("no reducer to plan the clusters onto: " + reducers);
+
+		long total = 0;
+		for (int i = 0; i < k; i++) {
+			total += (sizes != null) ? sizes[i] : 1;
+		}
+		final long share = Math.max(1, (total + reducers - 1) / reducers);
+
+		// split the clusters above the fair share of a reducer
+		final int[] shards = new int[k];
+		int slots = 0;
+		for (int i = 0; i < k; i++) {
+			long size = (sizes != null) ? sizes[i] : 1;
+			shards[i] = (int) Math.max(1, Math.min(reducers, (size + share - 1) / share));
+			slots += shards[i];
+		}
+
+		final long[] slotLoads = new long[slots];
+		final Integer[] order = new Integer[slots];
+		for (int i = 0, slot = 0; i < k; i++) {
+			long size = (sizes != null) ? sizes[i] : 1;
+			for (int j = 0; j < shards[i]; j++, slot++) {
+				slotLoads[slot] = size / shards[i];
+				order[slot] = slot;
+			}
+		}
+
+		// place the largest slots first, each onto the least loaded reducer (ties go to the lowest one)
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer one, Integer two) {
+				if (slotLoads[one] != slotLoads[two]) return (slotLoads[one] > slotLoads[two]) ? -1 : 1;
+				return one.compareTo(two);
+			}
+		});
+		final int[] slotReducers = new int[slots];
+		Arrays.fill(slotReducers, -1);
+		final PartitionPlan plan = new PartitionPlan(shards, slotReducers);
+		final long[] loads = new long[reducers];
+		for (int slot : order) {
+			final int cluster = plan.slotClusters[slot];
+			int best = -1;
+			for (int r = 0; r < reducers; r++) {
+				if ((best < 0 || loads[r] < loads[best]) && !plan.usesReducer(cluster, r)) {
+					best = r;
+				}
+			}
+			plan.slotReducers[slot] = best;
+			loads[best] += Math.max(1, slotLoads[slot]);
+		}
+		return plan;
+	}
+
+	/** Read the plan of the job, one slot per cluster spread over the reducers if there is none. */
+	public static PartitionPlan read(Configuration conf, int k, int reducers) {
+		final int[] shards = conf.getInts(SHARDS);
+		final int[] slotReducers = conf.getInts(REDUCERS);
+		if (shards.length == k) {
+			return new PartitionPlan(shards, slotReducers);
+		}
+
+		final int[] single = new int[k];
+		final int[] defaultReducers = new int[k];
+		for (int i = 0; i < k; i++) {
+			single[i] = 1;
+			defaultReducers[i] = i % reducers;
+		}
+		return new PartitionPlan(single, defaultReducers);
+	}
+
+	public void write(Configuration conf) {
+		final int k = firstSlots.length - 1;
+		final String[] shards = new String[k];
+		for (int i = 0; i < k; i++) {
+			shards[i] = Integer.toString(shards(i));
+		}
+		final String[] reducers = new String[slotReducers.length];
+		for (int i = 0; i < slotReducers.length; i++) {
+			reducers[i] = Integer.toString(slotReducers[i]);
+		}
+		conf.setStrings(SHARDS, shards);
+		conf.setStrings(REDUCERS, reducers);
+	}
+
+	public int shards(int cluster) {
+		return firstSlots[cluster + 1] - firstSlots[cluster];
+	}
+
+	public boolean isSharded(int cluster) {
+		return shards(cluster) > 1;
+	}
+
+	public int slot(int cluster, int shard) {
+		return firstSlots[cluster] + shard;
+	}
+
+	public int cluster(int slot) {
+		return slotClusters[slot];
+	}
+
+	public int reducer(int slot) {
+		return slotReducers[slot];
+	}
+
+	/** Reducer responsible for the cluster as a whole, i.e. the reducer of its first slot. */
+	public int home(int cluster) {
+		return slotReducers[firstSlots[cluster]];
+	}
+
+	/** Whether an already placed shard of the cluster is on the given reducer. */
+	private boolean usesReducer(int cluster, int reducer) {
+		for (int i = firstSlots[cluster]; i < firstSlots[cluster + 1]; i++) {
+			if (slotReducers[i] == reducer) return true;
+		}
+		return false;
+	}
+}
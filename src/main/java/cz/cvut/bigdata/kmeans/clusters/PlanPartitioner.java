@@ -0,0 +1,35 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioner of the slots of the clustering job by its {@link PartitionPlan}.
+ */
+public class PlanPartitioner extends Partitioner<IntWritable, Object> implements Configurable {
+
+	private Configuration conf;
+	private PartitionPlan plan;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		final int reducers = conf.getInt(MRJobConfig.NUM_REDUCES, 1);
+		plan = PartitionPlan.read(conf, conf.getInt(Centroids.K, reducers), reducers);
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public int getPartition(IntWritable key, Object value, int numPartitions) {
+		return plan.reducer(key.get());
+	}
+
+}
@@ -0,0 +1,132 @@
+package cz.cvut.bigdata.kmeans.dictionary;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts the documents of each term within the task, flushing the counts
+ * whenever too many terms are held in memory, so the reducers only sum
+ * the document frequencies. Each task writes the number of the documents
+ * of its split to the <i>splits</i> output as well.
+ */
+public class DictionaryMapper extends Mapper<Text, Text, LongWritable, LongWritable> {
+
+	/** Number of the terms counted in memory before the counts are flushed. */
+	public static final String MAX_TERMS = "kmeans.dictionary.max.terms";
+
+	private final VectorWritable vector = new VectorWritable();
+	private final LongWritable term = new LongWritable();
+	private final LongWritable count = new LongWritable();
+
+	private TermCounts counts;
+	private int maxTerms;
+	private long records;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		vector.setConf(context.getConfiguration());
+		counts = new TermCounts();
+		maxTerms = context.getConfiguration().getInt(MAX_TERMS, 1 << 18);
+		records = 0;
+	}
+
+	@Override
+	protected void map(Text key, Text value, Context context) throws IOException, InterruptedException {
+		vector.parse(value);
+		for (int i = 0; i < vector.size(); i++) {
+			counts.increment(vector.indexAt(i));
+		}
+		records++;
+
+		if (counts.size >= maxTerms) {
+			flush(context);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		flush(context);
+
+		final MultipleOutputs outputs = new MultipleOutputs(context);
+		outputs.write("splits", new Text(DocumentDictionary.name(context.getInputSplit())), new LongWritable(records));
+		outputs.close();
+	}
+
+	private void flush(Context context) throws IOException, InterruptedException {
+		for (int slot = 0; slot < counts.used.length; slot++) {
+			if (counts.used[slot]) {
+				term.set(counts.terms[slot]);
+				count.set(counts.counts[slot]);
+				context.write(term, count);
+			}
+		}
+		counts.clear();
+	}
+
+	/** Counts of the terms in an open-addressing hash table of primitive terms and counts. */
+	private static class TermCounts {
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		long[] terms = new long[INITIAL_CAPACITY];
+		long[] counts = new long[INITIAL_CAPACITY];
+		boolean[] used = new boolean[INITIAL_CAPACITY];
+		int size = 0;
+
+		void increment(long term) {
+			// keep the load factor under one half
+			if (2 * (size + 1) > terms.length) {
+				resize(2 * terms.length);
+			}
+			final int slot = slot(term);
+			if (!used[slot]) {
+				used[slot] = true;
+				terms[slot] = term;
+				size++;
+			}
+			counts[slot]++;
+		}
+
+		void clear() {
+			if (size > 0) {
+				Arrays.fill(used, false);
+				Arrays.fill(counts, 0);
+				size = 0;
+			}
+		}
+
+		/** Find the slot holding the term, or the free slot where it belongs. */
+		private int slot(long term) {
+			final int mask = terms.length - 1;
+			long hash = term * 0x9E3779B97F4A7C15L;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while (used[slot] && terms[slot] != term) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void resize(int capacity) {
+			final long[] oldTerms = terms;
+			final long[] oldCounts = counts;
+			final boolean[] oldUsed = used;
+			terms = new long[capacity];
+			counts = new long[capacity];
+			used = new boolean[capacity];
+			for (int i = 0; i < oldTerms.length; i++) {
+				if (oldUsed[i]) {
+					final int slot = slot(oldTerms[i]);
+					used[slot] = true;
+					terms[slot] = oldTerms[i];
+					counts[slot] = oldCounts[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package cz.cvut.bigdata.kmeans.dictionary;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dense ids of the documents. The documents of an input split get the
+ * consecutive ids from the base of the split, the bases following the
+ * numbers of the documents of the splits sorted by their names. Each
+ * normalize task writes the keys of its documents into a map file of the
+ * <i>documents</i> output, which the output reducers look the ids up in.
+ */
+public class DocumentDictionary implements Closeable {
+
+	/** Directory of the map files of the documents. */
+	public static final String PATH = "kmeans.dictionary.documents";
+	/** File of the base ids of the input splits. */
+	public static final String SPLITS = "kmeans.dictionary.splits";
+
+	private final MapFile.Reader[] readers;
+	private final int[] firstIds;
+	private final IntWritable id = new IntWritable();
+	private final Text document = new Text();
+
+	private DocumentDictionary(MapFile.Reader[] readers, int[] firstIds) {
+		this.readers = readers;
+		this.firstIds = firstIds;
+	}
+
+	/** Open the map files of the job ordered by their first ids. */
+	public static DocumentDictionary open(Configuration conf) throws IOException {
+		final FileSystem fs = FileSystem.get(conf);
+		final List<MapFile.Reader> readers = new ArrayList<MapFile.Reader>();
+		final List<Integer> firstIds = new ArrayList<Integer>();
+		final IntWritable id = new IntWritable();
+		final Text document = new Text();
+		for (FileStatus status : fs.listStatus(new Path(conf.get(PATH)))) {
+			if (!status.isDirectory()) continue;
+			final MapFile.Reader reader = new MapFile.Reader(status.getPath(), conf);
+			if (!reader.next(id, document)) {
+				reader.close();
+				continue;
+			}
+			reader.reset();
+
+			// keep the readers sorted, the ranges of the files do not overlap
+			int position = 0;
+			while (position < firstIds.size() && firstIds.get(position) < id.get()) {
+				position++;
+			}
+			readers.add(position, reader);
+			firstIds.add(position, id.get());
+		}
+
+		final int[] ids = new int[firstIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = firstIds.get(i);
+		}
+		return new DocumentDictionary(readers.toArray(new MapFile.Reader[readers.size()]), ids);
+	}
+
+	/** Key of the document of the given id, valid until the next lookup. */
+	public Text get(int documentId) throws IOException {
+		int file = Arrays.binarySearch(firstIds, documentId);
+		if (file < 0) {
+			file = -file - 2;
+		}
+		id.set(documentId);
+		if (file < 0 || readers[file].get(id, document) == null) {
+			throw new IOException("unknown document: " + documentId);
+		}
+		return document;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (MapFile.Reader reader : readers) {
+			reader.close();
+		}
+	}
+
+	/** Name of the input split, the same in all the jobs over the same input. */
+	public static String name(InputSplit split) {
+		final FileSplit file = (FileSplit) split;
+		return file.getPath() + ":" + file.getStart();
+	}
+
+	/** Write the base ids of the splits given by their numbers of the documents, returns the total. */
+	public static long writeSplits(FileSystem fs, Path file, Map<String, Long> documents) throws IOException {
+		final String[] names = documents.keySet().toArray(new String[documents.size()]);
+		Arrays.sort(names);
+
+		long base = 0;
+		final Writer writer = new OutputStreamWriter(fs.create(file, true), "UTF-8");
+		try {
+			for (String name : names) {
+				writer.write(name + "\t" + base + "\n");
+				base += documents.get(name);
+			}
+		} finally {
+			writer.close();
+		}
+		if (base > Integer.MAX_VALUE) {
+			throw new IOException("too many documents for the int ids: " + base);
+		}
+		return base;
+	}
+
+	/** Read the base id of the given split. */
+	public static int base(Configuration conf, InputSplit split) throws IOException {
+		final String name = name(split);
+		final Path file = new Path(conf.get(SPLITS));
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(FileSystem.get(conf).open(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int tab = line.lastIndexOf('\t');
+				if (line.substring(0, tab).equals(name)) {
+					return Integer.parseInt(line.substring(tab + 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		throw new IOException("unknown split: " + name);
+	}
+}
@@ -0,0 +1,147 @@
+package cz.cvut.bigdata.kmeans.dictionary;
+
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Dense ids of the terms of the input vectors ordered by their document
+ * frequencies, so the most frequent terms get the lowest ids and share the
+ * first rows of the dense centroid stores. The binary file holds the number
+ * of the terms, the terms in the order of their ids and then the terms
+ * sorted with their ids for the lookups of the tasks.
+ */
+public class TermDictionary {
+
+	/** Path of the dictionary file. */
+	public static final String PATH = "kmeans.dictionary.terms";
+
+	private static final int MAGIC = 0x4b4d5444;
+
+	/** Dictionary of the last path, kept for the next tasks of the same JVM. */
+	private static String cachedPath;
+	private static TermDictionary cached;
+
+	private final long[] terms;
+	private final long[] sortedTerms;
+	private final int[] sortedIds;
+
+	private TermDictionary(long[] terms, long[] sortedTerms, int[] sortedIds) {
+		this.terms = terms;
+		this.sortedTerms = sortedTerms;
+		this.sortedIds = sortedIds;
+	}
+
+	/** Load the dictionary of the job, or null if it has none. */
+	public static synchronized TermDictionary load(Configuration conf) throws IOException {
+		final String path = conf.get(PATH);
+		if (path == null) return null;
+		if (!path.equals(cachedPath)) {
+			cached = read(FileSystem.get(conf), new Path(path));
+			cachedPath = path;
+		}
+		return cached;
+	}
+
+	private static TermDictionary read(FileSystem fs, Path file) throws IOException {
+		final FSDataInputStream in = fs.open(file);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not a term dictionary: " + file);
+			}
+			final int count = in.readInt();
+			final long[] terms = new long[count];
+			final long[] sortedTerms = new long[count];
+			final int[] sortedIds = new int[count];
+			for (int i = 0; i < count; i++) {
+				terms[i] = in.readLong();
+			}
+			for (int i = 0; i < count; i++) {
+				sortedTerms[i] = in.readLong();
+				sortedIds[i] = in.readInt();
+			}
+			return new TermDictionary(terms, sortedTerms, sortedIds);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Create the dictionary of the given terms and their document frequencies, ties go to the lower term. */
+	public static TermDictionary create(final long[] terms, final long[] frequencies) {
+		final Integer[] order = new Integer[terms.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer one, Integer two) {
+				if (frequencies[one] != frequencies[two]) return (frequencies[one] > frequencies[two]) ? -1 : 1;
+				return (terms[one] < terms[two]) ? -1 : ((terms[one] == terms[two]) ? 0 : 1);
+			}
+		});
+
+		final long[] termsById = new long[terms.length];
+		final int[] ids = new int[terms.length];
+		for (int id = 0; id < order.length; id++) {
+			termsById[id] = terms[order[id]];
+			ids[order[id]] = id;
+		}
+		final Integer[] sorted = new Integer[terms.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer one, Integer two) {
+				return (terms[one] < terms[two]) ? -1 : ((terms[one] == terms[two]) ? 0 : 1);
+			}
+		});
+
+		final long[] sortedTerms = new long[terms.length];
+		final int[] sortedIds = new int[terms.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sortedTerms[i] = terms[sorted[i]];
+			sortedIds[i] = ids[sorted[i]];
+		}
+		return new TermDictionary(termsById, sortedTerms, sortedIds);
+	}
+
+	public void write(FileSystem fs, Path file) throws IOException {
+		final FSDataOutputStream out = fs.create(file, true);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(terms.length);
+			for (long term : terms) {
+				out.writeLong(term);
+			}
+			for (int i = 0; i < sortedTerms.length; i++) {
+				out.writeLong(sortedTerms[i]);
+				out.writeInt(sortedIds[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	/** Replace the terms of the vector by their ids. */
+	public void toIds(VectorWritable vector) {
+		VectorUtils.remap(vector, sortedTerms, sortedIds);
+	}
+
+	/** Replace the ids of the vector by their terms. */
+	public void toTerms(VectorWritable vector) {
+		VectorUtils.remap(vector, terms);
+	}
+}
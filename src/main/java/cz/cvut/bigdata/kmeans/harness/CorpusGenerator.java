@@ -0,0 +1,156 @@
+package cz.cvut.bigdata.kmeans.harness;
+
+import cz.cvut.bigdata.cli.ArgumentParser;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Generator of a synthetic TF-IDF index in the <i>document \t index:weight ...</i>
+ * format of the k-means input. The terms follow the Zipf's law of a natural
+ * language, and the documents are planted into the given number of clusters:
+ * each cluster has its own topic, i.e. a random set of terms with their own
+ * Zipfian frequencies, and a document draws its terms from the topic of its
+ * cluster except for the given fraction of noise drawn from the whole
+ * vocabulary. The same seed generates the same index.
+ */
+public class CorpusGenerator extends Configured implements Tool {
+
+	public static void main(String[] arguments) throws Exception {
+		System.exit(ToolRunner.run(new CorpusGenerator(), arguments));
+	}
+
+	/** Exponent of the Zipf's law, close to the one of natural languages. */
+	private static final double EXPONENT = 1.07;
+
+	@Override
+	public int run(String[] arguments) throws Exception {
+		final ArgumentParser parser = new ArgumentParser("corpus-generator");
+
+		parser.addArgument("output", true, true, "specify output directory");
+		parser.addArgument("documents", true, "10000", false, "specify the number of the documents");
+		parser.addArgument("vocabulary", true, "100000", false, "specify the number of the distinct terms");
+		parser.addArgument("terms", true, "100", false, "specify the average number of the distinct terms of a document");
+		parser.addArgument("clusters", true, "10", false, "specify the number of the planted clusters");
+		parser.addArgument("topic", true, null, false, "specify the number of the terms of a cluster topic (10 times the terms by default)");
+		parser.addArgument("noise", true, "0.3", false, "specify the fraction of the terms drawn from the whole vocabulary");
+		parser.addArgument("files", true, "4", false, "specify the number of the output files");
+		parser.addArgument("seed", true, "0", false, "specify the seed of the generator");
+		parser.parseAndCheck(arguments);
+
+		final Path outputDir = new Path(parser.getString("output"));
+		final int documents = parser.getInt("documents");
+		final int vocabulary = parser.getInt("vocabulary");
+		final int terms = Math.min(parser.getInt("terms"), vocabulary);
+		final int clusters = parser.getInt("clusters");
+		final int topic = Math.min(parser.hasOption("topic") ? parser.getInt("topic") : 10 * terms, vocabulary);
+		final double noise = parser.getDouble("noise");
+		final int files = parser.getInt("files");
+		final Random random = new Random(parser.getLong("seed"));
+
+		// the whole vocabulary and the topics, each a random subset of the terms
+		final double[] background = zipf(vocabulary);
+		final double[] topicFrequencies = zipf(topic);
+		final int[][] topics = new int[clusters][];
+		for (int c = 0; c < clusters; c++) {
+			topics[c] = sample(vocabulary, topic, random);
+		}
+
+		final FileSystem fs = outputDir.getFileSystem(getConf());
+		if (fs.exists(outputDir)) {
+			fs.delete(outputDir, true);
+		}
+		final Writer[] writers = new Writer[files];
+		for (int f = 0; f < files; f++) {
+			writers[f] = new BufferedWriter(new OutputStreamWriter(fs.create(new Path(outputDir, String.format("part-%05d", f))), "UTF-8"));
+		}
+
+		final Map<Integer, Integer> frequencies = new TreeMap<Integer, Integer>();
+		final StringBuilder line = new StringBuilder();
+		long entries = 0;
+		try {
+			for (int d = 0; d < documents; d++) {
+				final int cluster = random.nextInt(clusters);
+				final int length = Math.max(1, terms / 2 + random.nextInt(terms + 1));
+
+				// the frequent terms repeat, so draw until enough distinct ones are there
+				frequencies.clear();
+				for (int draws = 0; frequencies.size() < length && draws < 100 * length; draws++) {
+					final int term = (random.nextDouble() < noise) ? draw(background, random) : topics[cluster][draw(topicFrequencies, random)];
+					final Integer frequency = frequencies.get(term);
+					frequencies.put(term, (frequency != null) ? frequency + 1 : 1);
+				}
+
+				// weight by the term frequency and the inverse document frequency of the term rank
+				line.setLength(0);
+				line.append("doc").append(d).append('\t');
+				for (Map.Entry<Integer, Integer> entry : frequencies.entrySet()) {
+					final double tf = 1.0 + Math.log(entry.getValue());
+					final double idf = Math.log((double) vocabulary / (1.0 + probability(background, entry.getKey()) * vocabulary));
+					line.append(entry.getKey()).append(':').append(tf * Math.max(idf, 0.1)).append(' ');
+				}
+				line.setLength(line.length() - 1);
+				line.append('\n');
+				writers[d % files].write(line.toString());
+				entries += frequencies.size();
+			}
+		} finally {
+			for (Writer writer : writers) {
+				writer.close();
+			}
+		}
+
+		System.out.printf("generated %d documents with %d entries in %d clusters%n", documents, entries, clusters);
+		return 0;
+	}
+
+	/** Cumulative Zipfian probabilities of the given number of the ranks. */
+	private static double[] zipf(int count) {
+		final double[] cumulative = new double[count];
+		double sum = 0.0;
+		for (int i = 0; i < count; i++) {
+			sum += 1.0 / Math.pow(i + 1, EXPONENT);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < count; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+	/** Probability of the given rank. */
+	private static double probability(double[] cumulative, int rank) {
+		return cumulative[rank] - ((rank > 0) ? cumulative[rank - 1] : 0.0);
+	}
+
+	/** Draw a rank by the cumulative probabilities. */
+	private static int draw(double[] cumulative, Random random) {
+		final int found = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min((found >= 0) ? found + 1 : -found - 1, cumulative.length - 1);
+	}
+
+	/** Random subset of the given size of the terms, in a random order. */
+	private static int[] sample(int vocabulary, int size, Random random) {
+		final int[] terms = new int[size];
+		final boolean[] used = new boolean[vocabulary];
+		for (int i = 0; i < size; i++) {
+			int term;
+			do {
+				term = random.nextInt(vocabulary);
+			} while (used[term]);
+			used[term] = true;
+			terms[i] = term;
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,98 @@
+package cz.cvut.bigdata.kmeans.harness;
+
+import cz.cvut.bigdata.kmeans.Main;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringCounter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs the whole k-means application within this JVM by the local job
+ * runner on the configured file system (<i>-fs file:///</i> for a local
+ * one), and reports the wall time, the records and the shuffled bytes of
+ * each stage, i.e. of all the jobs of the same name, and the number of the
+ * iterations.
+ * The arguments are the ones of {@link Main}, e.g. on an index of the
+ * {@link CorpusGenerator}.
+ */
+public class Harness extends Configured implements Tool {
+
+	public static void main(String[] arguments) throws Exception {
+		System.exit(ToolRunner.run(new Harness(), arguments));
+	}
+
+	/** Totals of the jobs of a stage. */
+	private static class Stage {
+		int jobs;
+		long millis, inputRecords, outputRecords, shuffledBytes, iterations;
+	}
+
+	private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+	@Override
+	public int run(String[] arguments) throws Exception {
+		final Configuration conf = getConf();
+		conf.set("mapreduce.framework.name", "local");
+
+		final Main main = new Main() {
+			@Override
+			protected boolean waitForCompletion(Job job) throws Exception {
+				final long start = System.nanoTime();
+				final boolean completed = super.waitForCompletion(job);
+				record(job, (System.nanoTime() - start) / 1000000);
+				return completed;
+			}
+		};
+		main.setConf(conf);
+
+		final long start = System.nanoTime();
+		final int result = main.run(arguments);
+		final long millis = (System.nanoTime() - start) / 1000000;
+
+		report(millis);
+		return result;
+	}
+
+	private void record(Job job, long millis) throws Exception {
+		Stage stage = stages.get(job.getJobName());
+		if (stage == null) {
+			stage = new Stage();
+			stages.put(job.getJobName(), stage);
+		}
+		final Counters counters = job.getCounters();
+		stage.jobs++;
+		stage.millis += millis;
+		if (counters != null) {
+			stage.inputRecords += counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+			stage.outputRecords += counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+			stage.shuffledBytes += counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue();
+			stage.iterations += counters.findCounter(ClusteringCounter.ITERATIONS).getValue();
+		}
+	}
+
+	private void report(long millis) {
+		long iterations = 0;
+		System.out.printf("%n%-20s %6s %10s %14s %14s %16s%n", "stage", "jobs", "time [ms]", "input records", "map outputs", "shuffled bytes");
+		for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+			final Stage stage = entry.getValue();
+			System.out.printf("%-20s %6d %10d %14d %14d %16d%n", entry.getKey(), stage.jobs, stage.millis, stage.inputRecords, stage.outputRecords, stage.shuffledBytes);
+			if ("Clustering".equals(entry.getKey())) {
+				iterations += stage.jobs;
+			} else {
+				// the in-memory clustering counts its iterations itself
+				iterations += stage.iterations;
+			}
+		}
+		System.out.printf("%-20s %6s %10d%n", "total", "", millis);
+		if (!stages.isEmpty()) {
+			System.out.printf("%d clustering iterations%n", iterations);
+		}
+	}
+}
@@ -0,0 +1,528 @@
+package cz.cvut.bigdata.kmeans.local;
+
+import cz.cvut.bigdata.kmeans.centroids.CentroidStore;
+import cz.cvut.bigdata.kmeans.clusters.ClusterOutputReducer.Prototype;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringCounter;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringMetrics;
+import cz.cvut.bigdata.kmeans.clusters.ClusteringReducer;
+import cz.cvut.bigdata.kmeans.dictionary.TermDictionary;
+import cz.cvut.bigdata.kmeans.norm.NormalizeMapper;
+import cz.cvut.bigdata.kmeans.seeding.Seeding;
+import cz.cvut.bigdata.kmeans.seeding.SeedingMapper;
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.SparseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Standalone k-means running the whole pipeline (normalize, assign, update
+ * and output) within a single JVM. The documents are split into one chunk
+ * per thread, every chunk is summed into its own partial sums and these are
+ * merged in the chunk order, so the result does not depend on the thread
+ * scheduling. The terms are keyed by dense ids ordered by their document
+ * frequencies as the dictionary job does, so the new means are summed
+ * densely. It reads the same input and writes the same <i>clusters</i>
+ * output and metrics as the MapReduce jobs.
+ */
+public class LocalKMeans {
+
+	private final Configuration conf;
+	private final int k, threads, maxIterations;
+	private final double tolerance;
+	private int seedingRounds;
+	private double oversampling;
+
+	private ExecutorService executor;
+	private String[] keys;
+	private VectorWritable[] vectors;
+	private VectorWritable[] centroids;
+	private Chunk[] chunks;
+	private TermDictionary dictionary;
+	/** Dense sums of the mean being merged. */
+	private DenseAccumulator meanSums;
+	/** Cluster of each document in the last iteration, -1 before the first one. */
+	private int[] clusters;
+	/** Mass discarded by the truncation of the means in the last iteration. */
+	private double discardedMass;
+	/** Totals of all the chunks in the last iteration. */
+	private int[] sizes;
+	private double objective;
+	private long assignNanos, reassigned;
+
+	public LocalKMeans(Configuration conf, int k, int threads, int maxIterations, double tolerance) {
+		this.conf = conf;
+		this.k = k;
+		this.threads = threads;
+		this.maxIterations = maxIterations;
+		this.tolerance = tolerance;
+	}
+
+	/** Replace the random seeds by the k-means|| seeding with the given number of the oversampling rounds. */
+	public void setParallelSeeding(int rounds, double oversampling) {
+		this.seedingRounds = rounds;
+		this.oversampling = oversampling;
+	}
+
+	public void run(Path input, Path output) throws IOException, InterruptedException {
+		executor = Executors.newFixedThreadPool(threads);
+		try {
+			load(input);
+			seed();
+			if (seedingRounds > 0) {
+				seedParallel();
+			}
+
+			final ClusteringMetrics metrics = new ClusteringMetrics(output.getFileSystem(conf), output);
+			for (int i = 1; i <= maxIterations; i++) {
+				final long start = System.currentTimeMillis();
+				final double shift = iterate();
+				System.out.printf("iteration %d: centroid shift %g, discarded mass %g%n", i, shift, discardedMass);
+
+				// the vectors are read once before the iterations and nothing is shuffled
+				final Counters counters = new Counters();
+				counters.findCounter(ClusteringCounter.OBJECTIVE).setValue(Math.round(objective * ClusteringCounter.SHIFT_SCALE));
+				counters.findCounter(ClusteringCounter.ASSIGN_MILLIS).setValue(assignNanos / 1000000);
+				metrics.add(i, System.currentTimeMillis() - start, counters, shift, discardedMass, reassigned, sizes, centroids);
+				if (shift <= tolerance) break;
+			}
+
+			write(new Path(output, "clusters"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Read and normalize all the input vectors, one input file per task. */
+	private void load(Path input) throws IOException, InterruptedException {
+		final FileSystem fs = input.getFileSystem(conf);
+		final List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+		for (final FileStatus status : fs.listStatus(input)) {
+			final String name = status.getPath().getName();
+			if (status.isDirectory() || name.startsWith("_") || name.startsWith(".")) continue;
+			futures.add(executor.submit(new Callable<Chunk>() {
+				@Override
+				public Chunk call() throws IOException {
+					return read(fs, status.getPath());
+				}
+			}));
+		}
+
+		final List<String> allKeys = new ArrayList<String>();
+		final List<VectorWritable> allVectors = new ArrayList<VectorWritable>();
+		for (Chunk chunk : await(futures)) {
+			allKeys.addAll(chunk.keys);
+			allVectors.addAll(chunk.vectors);
+		}
+		keys = allKeys.toArray(new String[allKeys.size()]);
+		vectors = allVectors.toArray(new VectorWritable[allVectors.size()]);
+		clusters = new int[vectors.length];
+		Arrays.fill(clusters, -1);
+
+		// split the documents into a chunk per thread
+		chunks = new Chunk[Math.min(threads, Math.max(1, vectors.length))];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new Chunk(i * vectors.length / chunks.length, (i + 1) * vectors.length / chunks.length);
+		}
+
+		// replace the terms by their dense ids
+		dictionary = createDictionary();
+		final List<Future<Chunk>> remapped = new ArrayList<Future<Chunk>>();
+		for (final Chunk chunk : chunks) {
+			remapped.add(executor.submit(new Callable<Chunk>() {
+				@Override
+				public Chunk call() {
+					for (int j = chunk.from; j < chunk.to; j++) {
+						dictionary.toIds(vectors[j]);
+					}
+					return chunk;
+				}
+			}));
+		}
+		await(remapped);
+		meanSums = new DenseAccumulator(dictionary.size(), conf.getBoolean(ClusteringReducer.DIRECT_SUMS, false));
+	}
+
+	/** Create the dictionary of the terms of all the documents by their document frequencies. */
+	private TermDictionary createDictionary() {
+		int entries = 0;
+		for (VectorWritable vector : vectors) {
+			entries += vector.size();
+		}
+		final long[] all = new long[entries];
+		int position = 0;
+		for (VectorWritable vector : vectors) {
+			for (int i = 0; i < vector.size(); i++) {
+				all[position++] = vector.indexAt(i);
+			}
+		}
+		Arrays.sort(all);
+
+		// the indices of a document are distinct, so the occurrences of a term are its document frequency
+		int count = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (i == 0 || all[i] != all[i - 1]) count++;
+		}
+		final long[] terms = new long[count];
+		final long[] frequencies = new long[count];
+		for (int i = 0, term = -1; i < all.length; i++) {
+			if (i == 0 || all[i] != all[i - 1]) {
+				terms[++term] = all[i];
+			}
+			frequencies[term]++;
+		}
+		return TermDictionary.create(terms, frequencies);
+	}
+
+	/** Read the <i>key \t vector</i> lines of a single input file. */
+	private Chunk read(FileSystem fs, Path file) throws IOException {
+		final Chunk chunk = new Chunk(0, 0);
+		final LineReader reader = new LineReader(fs.open(file), conf);
+		try {
+			final Text line = new Text();
+			while (reader.readLine(line) > 0) {
+				// parse the vector right from the bytes of the line
+				final byte[] bytes = line.getBytes();
+				final int end = line.getLength();
+				int tab = 0;
+				while (tab < end && bytes[tab] != '\t') tab++;
+				VectorWritable vector = new VectorWritable().parse(bytes, Math.min(tab + 1, end), Math.max(end - tab - 1, 0));
+				VectorUtils.normalize(vector);
+				chunk.keys.add(Text.decode(bytes, 0, tab));
+				chunk.vectors.add(vector);
+			}
+		} finally {
+			reader.close();
+		}
+		return chunk;
+	}
+
+	/** Pick the initial centroids the way the normalize job does, i.e. a uniform sample of k documents. */
+	private void seed() {
+		final Random random = new Random(conf.getLong(NormalizeMapper.SEED, 0));
+		final int[] sample = new int[Math.min(k, vectors.length)];
+		for (int i = 0; i < vectors.length; i++) {
+			int slot = (i < sample.length) ? i : random.nextInt(i + 1);
+			if (slot < sample.length) {
+				sample[slot] = i;
+			}
+		}
+
+		centroids = new VectorWritable[k];
+		for (int i = 0; i < k; i++) {
+			centroids[i] = new VectorWritable();
+			if (i < sample.length) {
+				centroids[i].copy(vectors[sample[i]]);
+			}
+		}
+	}
+
+	/** Replace the seeds by the k-means|| seeding, starting from the first non-empty one. */
+	private void seedParallel() throws IOException, InterruptedException {
+		final List<VectorWritable> candidates = new ArrayList<VectorWritable>();
+		for (VectorWritable seed : centroids) {
+			if (seed.size() > 0) {
+				candidates.add(seed);
+				break;
+			}
+		}
+		if (candidates.isEmpty()) return;
+
+		// oversample the candidates, the first pass only computes the cost
+		final long seed = conf.getLong(SeedingMapper.SEED, 0);
+		double cost = 0.0;
+		for (int round = 0; round <= seedingRounds; round++) {
+			final CentroidStore store = CentroidStore.create(candidates.toArray(new VectorWritable[candidates.size()]), conf);
+			final double previousCost = cost;
+			final List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+			for (int i = 0; i < chunks.length; i++) {
+				final Chunk chunk = chunks[i];
+				final Random random = new Random((seed + round) * 31 + i);
+				futures.add(executor.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() {
+						chunk.sample(store, previousCost, random);
+						return chunk;
+					}
+				}));
+			}
+
+			cost = 0.0;
+			int sampled = 0;
+			for (Chunk chunk : await(futures)) {
+				cost += chunk.cost;
+				for (int j : chunk.sampled) {
+					candidates.add(vectors[j]);
+					sampled++;
+				}
+			}
+			System.out.printf("seeding round %d: cost %g, sampled %d candidates%n", round, cost, sampled);
+			if (round > 0 && sampled == 0) break;
+		}
+
+		// weight the candidates and reduce them to the k seeds
+		final CentroidStore store = CentroidStore.create(candidates.toArray(new VectorWritable[candidates.size()]), conf);
+		final List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+		for (final Chunk chunk : chunks) {
+			futures.add(executor.submit(new Callable<long[]>() {
+				@Override
+				public long[] call() {
+					return chunk.weigh(store);
+				}
+			}));
+		}
+		final long[] weights = new long[candidates.size()];
+		for (long[] chunkWeights : await(futures)) {
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] += chunkWeights[i];
+			}
+		}
+		centroids = Seeding.select(candidates, weights, k, new Random(seed));
+	}
+
+	/** Run a single iteration, returning the total shift of the centroids. */
+	private double iterate() throws IOException, InterruptedException {
+		final CentroidStore store = CentroidStore.create(centroids, conf);
+
+		// sum the vectors of each chunk in parallel
+		final List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+		for (final Chunk chunk : chunks) {
+			futures.add(executor.submit(new Callable<Chunk>() {
+				@Override
+				public Chunk call() {
+					chunk.sum(store);
+					return chunk;
+				}
+			}));
+		}
+		objective = 0.0;
+		assignNanos = reassigned = 0;
+		for (Chunk chunk : await(futures)) {
+			objective += chunk.objective;
+			assignNanos += chunk.nanos;
+			reassigned += chunk.reassigned;
+		}
+
+		// merge the partial sums in the chunk order, starting from the current means as the clustering reducer does
+		final VectorWritable sum = new VectorWritable();
+		double shift = 0.0;
+		discardedMass = 0.0;
+		sizes = new int[k];
+		for (int i = 0; i < k; i++) {
+			ClusteringReducer.startMean(meanSums, centroids, null, i);
+			int vectorCount = 0;
+			for (Chunk chunk : chunks) {
+				if (chunk.counts[i] > 0) {
+					chunk.sums[i].toVector(sum);
+					meanSums.add(sum);
+					vectorCount += chunk.counts[i];
+				}
+			}
+			sizes[i] = vectorCount;
+			if (vectorCount > 0) {
+				final VectorWritable mean = new VectorWritable();
+				ClusteringReducer.finishMean(meanSums, mean, null, i, vectorCount);
+				discardedMass += ClusteringReducer.truncateMean(mean, conf);
+				shift += VectorUtils.euclideanDistance(centroids[i], mean);
+				centroids[i] = mean;
+			}
+		}
+		return shift;
+	}
+
+	/** Assign the documents to the final centroids and write the same files as the cluster output job. */
+	private void write(Path outputDir) throws IOException, InterruptedException {
+		final CentroidStore store = CentroidStore.create(centroids, conf);
+		final int[] assignment = new int[vectors.length];
+
+		final List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+		for (final Chunk chunk : chunks) {
+			futures.add(executor.submit(new Callable<Chunk>() {
+				@Override
+				public Chunk call() {
+					final double[] similarity = new double[k];
+					for (int j = chunk.from; j < chunk.to; j++) {
+						assignment[j] = store.nearest(vectors[j], similarity);
+					}
+					return chunk;
+				}
+			}));
+		}
+		await(futures);
+
+		// group the documents by the cluster, ordered by the key within it
+		final Integer[] order = new Integer[vectors.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer one, Integer two) {
+				final int val = (assignment[one] < assignment[two]) ? -1 : ((assignment[one] == assignment[two]) ? 0 : 1);
+				return (val != 0) ? val : keys[one].compareTo(keys[two]);
+			}
+		});
+
+		final FileSystem fs = outputDir.getFileSystem(conf);
+		if (fs.exists(outputDir)) {
+			fs.delete(outputDir, true);
+		}
+		int next = 0;
+		for (int cluster = 0; cluster < k; cluster++) {
+			final Writer part = create(fs, new Path(outputDir, String.format("part-r-%05d", cluster)));
+			final TreeSet<Prototype> prototypes = new TreeSet<Prototype>();
+			try {
+				for (; next < order.length && assignment[order[next]] == cluster; next++) {
+					int document = order[next];
+					part.write(cluster + "\t" + keys[document] + "\n");
+
+					// keep the k documents most similar to the centroid
+					prototypes.add(new Prototype(keys[document], VectorUtils.cosineSimilarity(centroids[cluster], vectors[document])));
+					if (prototypes.size() > k) {
+						prototypes.pollFirst();
+					}
+				}
+			} finally {
+				part.close();
+			}
+
+			if (!prototypes.isEmpty()) {
+				// write the centroid by the original terms
+				final VectorWritable terms = new VectorWritable();
+				terms.copy(centroids[cluster]);
+				dictionary.toTerms(terms);
+				final Writer centroid = create(fs, new Path(outputDir, String.format("centroid-r-%05d", cluster)));
+				try {
+					centroid.write(cluster + "\t" + terms + "\n");
+				} finally {
+					centroid.close();
+				}
+
+				final Writer prototype = create(fs, new Path(outputDir, String.format("prototype-r-%05d", cluster)));
+				try {
+					for (Prototype p : prototypes) {
+						prototype.write(cluster + "\t" + p.getTerm() + "\n");
+					}
+				} finally {
+					prototype.close();
+				}
+			}
+		}
+		fs.create(new Path(outputDir, "_SUCCESS")).close();
+	}
+
+	private static Writer create(FileSystem fs, Path file) throws IOException {
+		final FSDataOutputStream out = fs.create(file);
+		return new OutputStreamWriter(out, "UTF-8");
+	}
+
+	/** Wait for all the tasks, returning their results in the order of submission. */
+	private static <T> List<T> await(List<Future<T>> futures) throws IOException, InterruptedException {
+		final List<T> results = new ArrayList<T>(futures.size());
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/** Range of the documents processed by a single thread, together with its partial sums. */
+	private class Chunk {
+
+		final int from, to;
+		final List<String> keys = new ArrayList<String>();
+		final List<VectorWritable> vectors = new ArrayList<VectorWritable>();
+
+		final SparseAccumulator[] sums = new SparseAccumulator[k];
+		final int[] counts = new int[k];
+
+		final List<Integer> sampled = new ArrayList<Integer>();
+		double cost, objective;
+		long nanos, reassigned;
+
+		Chunk(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		/** Sum the vectors of the range per their nearest centroid, counting the objective and the reassigned ones. */
+		void sum(CentroidStore store) {
+			final long start = System.nanoTime();
+			final double[] similarity = new double[k];
+			for (int i = 0; i < k; i++) {
+				counts[i] = 0;
+				if (sums[i] != null) sums[i].clear();
+			}
+			objective = 0.0;
+			reassigned = 0;
+			for (int j = from; j < to; j++) {
+				int nearest = store.nearest(LocalKMeans.this.vectors[j], similarity);
+				if (sums[nearest] == null) {
+					sums[nearest] = new SparseAccumulator();
+				}
+				sums[nearest].add(LocalKMeans.this.vectors[j]);
+				counts[nearest]++;
+				objective += similarity[nearest];
+				if (clusters[j] >= 0 && clusters[j] != nearest) {
+					reassigned++;
+				}
+				clusters[j] = nearest;
+			}
+			nanos = System.nanoTime() - start;
+		}
+
+		/** Sum the cost of the range and sample the new candidates given the cost of the previous pass. */
+		void sample(CentroidStore candidates, double previousCost, Random random) {
+			final double[] similarity = new double[candidates.size()];
+			sampled.clear();
+			cost = 0.0;
+			for (int j = from; j < to; j++) {
+				final VectorWritable vector = LocalKMeans.this.vectors[j];
+				candidates.similarities(vector, similarity);
+				final int nearest = Seeding.nearest(candidates, similarity);
+				final double distance = Seeding.squaredDistance(candidates, nearest, VectorUtils.squaredNorm(vector), similarity);
+				cost += distance;
+				if (previousCost > 0.0 && random.nextDouble() * previousCost < oversampling * distance) {
+					sampled.add(j);
+				}
+			}
+		}
+
+		/** Count the vectors of the range nearest to each candidate. */
+		long[] weigh(CentroidStore candidates) {
+			final double[] similarity = new double[candidates.size()];
+			final long[] weights = new long[candidates.size()];
+			for (int j = from; j < to; j++) {
+				candidates.similarities(LocalKMeans.this.vectors[j], similarity);
+				weights[Seeding.nearest(candidates, similarity)]++;
+			}
+			return weights;
+		}
+	}
+}
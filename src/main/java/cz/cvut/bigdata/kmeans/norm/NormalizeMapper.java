@@ -1,23 +1,91 @@
 package cz.cvut.bigdata.kmeans.norm;
 
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.dictionary.DocumentDictionary;
+import cz.cvut.bigdata.kmeans.dictionary.TermDictionary;
 import cz.cvut.bigdata.kmeans.vector.VectorUtils;
 import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 import java.io.IOException;
+import java.util.Random;
 
-public class NormalizeMapper extends Mapper<Text, Text, Text, VectorWritable> {
+/**
+ * Map-only normalization of the input vectors. The terms of the vectors are
+ * replaced by their ids from the term dictionary and the vectors are keyed
+ * by the ids of their documents, whose keys each task writes into the map
+ * file of the <i>documents</i> output. Besides that each task writes a
+ * uniform sample of its vectors (a reservoir of k vectors by default) to
+ * the <i>sample</i> output, each line prefixed by the number of the vectors
+ * the sample was drawn from, so the driver can merge the samples of all the
+ * tasks into the initial centroids.
+ */
+public class NormalizeMapper extends Mapper<Text, Text, IntWritable, VectorWritable> {
 
+	/** Size of the sample of each task, K by default. */
+	public static final String SAMPLE_SIZE = "kmeans.normalize.sample.size";
+	public static final String SEED = "kmeans.normalize.seed";
+
+	private final IntWritable id = new IntWritable();
 	private final VectorWritable vector = new VectorWritable();
 
+	private MultipleOutputs outputs;
+	private TermDictionary terms;
+	private int base;
+	private VectorWritable[] reservoir;
+	private long records;
+	private Random random;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		vector.setConf(conf);
+		outputs = new MultipleOutputs(context);
+		terms = TermDictionary.load(conf);
+		base = DocumentDictionary.base(conf, context.getInputSplit());
+		reservoir = new VectorWritable[conf.getInt(SAMPLE_SIZE, conf.getInt(Centroids.K, 1))];
+		records = 0;
+
+		// a re-executed attempt samples the same vectors
+		random = new Random(conf.getLong(SEED, 0) * 31 + context.getTaskAttemptID().getTaskID().getId());
+	}
+
 	@Override
 	protected void map(Text key, Text value, Context context) throws IOException, InterruptedException {
 		// parse and normalize the vector
-		vector.parse(value.toString());
+		vector.parse(value);
+		terms.toIds(vector);
 		VectorUtils.normalize(vector);
 
-		// emmit the result
-		context.write(key, vector);
+		// emmit the result keyed by the id of the document
+		id.set(base + (int) records);
+		context.write(id, vector);
+		outputs.write("documents", id, key);
+
+		// keep each of the vectors seen so far in the sample with the same probability
+		final long slot = (records < reservoir.length) ? records : (long) (random.nextDouble() * (records + 1));
+		if (slot < reservoir.length) {
+			if (reservoir[(int) slot] == null) {
+				reservoir[(int) slot] = new VectorWritable();
+			}
+			reservoir[(int) slot].copy(vector);
+		}
+		records++;
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		final LongWritable count = new LongWritable(records);
+		final Text text = new Text();
+		for (int i = 0; i < reservoir.length && i < records; i++) {
+			text.set(reservoir[i].toString());
+			outputs.write("sample", count, text);
+		}
+		outputs.close();
 	}
 }
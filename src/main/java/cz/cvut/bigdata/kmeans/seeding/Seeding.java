@@ -0,0 +1,131 @@
+package cz.cvut.bigdata.kmeans.seeding;
+
+import cz.cvut.bigdata.kmeans.centroids.CentroidStore;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Common parts of the k-means|| (scalable k-means++) seeding. The candidates
+ * are oversampled in a few passes over the vectors, each vector being picked
+ * with the probability proportional to its squared distance to the current
+ * candidates. Every candidate is then weighted by the number of the vectors
+ * nearest to it and the weighted candidates are reduced to the k centroids
+ * with the k-means++ on the driver.
+ */
+public class Seeding {
+
+	private Seeding() { }
+
+	/** Find the candidate with the least squared distance, given the similarities of the vector with all of them. */
+	public static int nearest(CentroidStore candidates, double[] similarity) {
+		int nearest = 0;
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < candidates.size(); i++) {
+			// the squared norm of the vector is the same for all the candidates
+			double distance = candidates.squaredNorm(i) - 2.0 * similarity[i];
+			if (distance < best) {
+				best = distance;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+
+	/** Squared distance of the vector to the nearest candidate, the similarities have to be filled already. */
+	public static double squaredDistance(CentroidStore candidates, int nearest, double vectorSquaredNorm, double[] similarity) {
+		final double distance = vectorSquaredNorm + candidates.squaredNorm(nearest) - 2.0 * similarity[nearest];
+		return (distance > 0.0) ? distance : 0.0;
+	}
+
+	/** Reduce the weighted candidates to k centroids by the k-means++, a centroid left unpicked is an empty vector. */
+	public static VectorWritable[] select(List<VectorWritable> candidates, long[] weights, int k, Random random) {
+		final int n = candidates.size();
+		final VectorWritable[] centroids = new VectorWritable[k];
+		final double[] distances = new double[n];
+		Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+		int count = 0;
+		for (; count < k; count++) {
+			// the first centroid is picked by the weight only
+			double total = 0.0;
+			for (int i = 0; i < n; i++) {
+				total += (count == 0) ? weights[i] : weights[i] * distances[i];
+			}
+			if (total <= 0.0) break;
+
+			int picked = -1;
+			double threshold = random.nextDouble() * total;
+			for (int i = 0; i < n && threshold >= 0.0; i++) {
+				double mass = (count == 0) ? weights[i] : weights[i] * distances[i];
+				if (mass > 0.0) {
+					picked = i;
+					threshold -= mass;
+				}
+			}
+
+			centroids[count] = new VectorWritable();
+			centroids[count].copy(candidates.get(picked));
+			for (int i = 0; i < n; i++) {
+				distances[i] = Math.min(distances[i], VectorUtils.squaredEuclideanDistance(candidates.get(i), centroids[count]));
+			}
+		}
+
+		for (; count < k; count++) {
+			centroids[count] = new VectorWritable();
+		}
+		return centroids;
+	}
+
+	/**
+	 * Merge the uniform samples of the tasks, each drawn out of the given
+	 * number of the vectors, into a uniform sample of k of all the vectors.
+	 * Each pick goes to a task by its number of the vectors not picked yet,
+	 * a centroid left unpicked is an empty vector. The picked vectors are
+	 * copied, so the samples are left intact.
+	 */
+	public static VectorWritable[] mergeSamples(List<List<VectorWritable>> samples, long[] records, int k, Random random) {
+		final long[] left = Arrays.copyOf(records, records.length);
+		long total = 0;
+		for (long count : left) {
+			total += count;
+		}
+
+		// the positions of each sample not picked yet come first
+		final int[][] positions = new int[samples.size()][];
+		final int[] unpicked = new int[samples.size()];
+		for (int i = 0; i < positions.length; i++) {
+			unpicked[i] = samples.get(i).size();
+			positions[i] = new int[unpicked[i]];
+			for (int j = 0; j < unpicked[i]; j++) {
+				positions[i][j] = j;
+			}
+		}
+
+		final VectorWritable[] centroids = new VectorWritable[k];
+		int count = 0;
+		for (; count < k && total > 0; count++) {
+			long threshold = (long) (random.nextDouble() * total);
+			int task = 0;
+			while (threshold >= left[task]) {
+				threshold -= left[task++];
+			}
+
+			// any vector of the sample not picked yet, the sample holds at least as many as are picked
+			final int picked = random.nextInt(unpicked[task]);
+			centroids[count] = new VectorWritable();
+			centroids[count].copy(samples.get(task).get(positions[task][picked]));
+			positions[task][picked] = positions[task][--unpicked[task]];
+			left[task]--;
+			total--;
+		}
+
+		for (; count < k; count++) {
+			centroids[count] = new VectorWritable();
+		}
+		return centroids;
+	}
+}
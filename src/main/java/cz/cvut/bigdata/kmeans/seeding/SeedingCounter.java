@@ -0,0 +1,16 @@
+package cz.cvut.bigdata.kmeans.seeding;
+
+/**
+ * Counters reported by the seeding jobs.
+ */
+public enum SeedingCounter {
+
+	/** Sum of the squared distances of the vectors to the nearest candidates, in units of {@link #COST_SCALE}. */
+	COST,
+
+	/** Number of the vectors sampled as new candidates. */
+	SAMPLED;
+
+	/** Scale of the fixed-point counter values. */
+	public static final double COST_SCALE = 1e9;
+}
@@ -0,0 +1,86 @@
+package cz.cvut.bigdata.kmeans.seeding;
+
+import cz.cvut.bigdata.kmeans.centroids.CentroidStore;
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.vector.VectorUtils;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Map-only pass of the k-means|| seeding over the candidates from the
+ * distributed cache. It sums the cost of the vectors, i.e. their squared
+ * distances to the nearest candidates, and given the cost of the previous
+ * pass it samples the new candidates as well. The last pass counts the
+ * vectors nearest to each candidate into the <i>weight</i> output instead.
+ */
+public class SeedingMapper extends Mapper<IntWritable, VectorWritable, IntWritable, Text> {
+
+	/** Cost of the previous pass, nothing is sampled without it. */
+	public static final String COST = "kmeans.seeding.cost";
+	/** Expected number of the candidates sampled in a single pass. */
+	public static final String OVERSAMPLING = "kmeans.seeding.oversampling";
+	public static final String SEED = "kmeans.seeding.seed";
+	/** Whether to count the weights of the candidates. */
+	public static final String WEIGHTS = "kmeans.seeding.weights";
+
+	private final Text text = new Text();
+
+	private CentroidStore candidates;
+	private double[] similarity;
+	private double previousCost, oversampling, cost;
+	private Random random;
+	private long[] weights;
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		candidates = Centroids.store(conf, conf.getInt(Centroids.K, 0));
+		similarity = new double[candidates.size()];
+		previousCost = conf.getDouble(COST, 0.0);
+		oversampling = conf.getDouble(OVERSAMPLING, 1.0);
+		cost = 0.0;
+
+		// a re-executed attempt samples the same vectors
+		random = new Random(conf.getLong(SEED, 0) * 31 + context.getTaskAttemptID().getTaskID().getId());
+		weights = conf.getBoolean(WEIGHTS, false) ? new long[candidates.size()] : null;
+	}
+
+	@Override
+	protected void map(IntWritable key, VectorWritable vector, Context context) throws IOException, InterruptedException {
+		candidates.similarities(vector, similarity);
+		final int nearest = Seeding.nearest(candidates, similarity);
+		final double distance = Seeding.squaredDistance(candidates, nearest, VectorUtils.squaredNorm(vector), similarity);
+		cost += distance;
+
+		if (weights != null) {
+			weights[nearest]++;
+		} else if (previousCost > 0.0 && random.nextDouble() * previousCost < oversampling * distance) {
+			text.set(vector.toString());
+			context.write(key, text);
+			context.getCounter(SeedingCounter.SAMPLED).increment(1);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		context.getCounter(SeedingCounter.COST).increment(Math.round(cost * SeedingCounter.COST_SCALE));
+
+		if (weights != null) {
+			final MultipleOutputs outputs = new MultipleOutputs(context);
+			for (int i = 0; i < weights.length; i++) {
+				if (weights[i] > 0) {
+					outputs.write("weight", new IntWritable(i), new LongWritable(weights[i]));
+				}
+			}
+			outputs.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package cz.cvut.bigdata.kmeans.vector;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the numbers of the text vectors right from their bytes, without
+ * creating a String for each of them. A double is decoded in place when its
+ * digits and the power of ten are both exact doubles, so a single division
+ * or multiplication rounds it correctly, or when it has up to 18 digits and
+ * a small negative exponent, as the shortest forms of the weights do, by an
+ * exact integer division. Any other one is left to <i>Double.parseDouble()</i>,
+ * so the result is always the same.
+ */
+final class DecimalParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	/** Powers of five up to the one of the least exponent of the exact division. */
+	private static final long[] POWERS_OF_FIVE = new long[27];
+
+	static {
+		POWERS_OF_FIVE[0] = 1;
+		for (int i = 1; i < POWERS_OF_FIVE.length; i++) {
+			POWERS_OF_FIVE[i] = 5 * POWERS_OF_FIVE[i - 1];
+		}
+	}
+
+	/** Largest mantissa which is an exact double. */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	/** Number of the decimal digits which surely fit into a long. */
+	private static final int MAX_DIGITS = 18;
+
+	private DecimalParser() { }
+
+	/** Decode the decimal long of the given range. */
+	static long parseLong(byte[] bytes, int start, int end) {
+		int i = start;
+		final boolean negative = (i < end && bytes[i] == '-');
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) i++;
+		if (i == end || end - i > MAX_DIGITS) {
+			return Long.parseLong(string(bytes, start, end));
+		}
+
+		long value = 0;
+		for (; i < end; i++) {
+			final int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("For input string: \"" + string(bytes, start, end) + "\"");
+			}
+			value = 10 * value + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/** Decode the decimal double of the given range. */
+	static double parseDouble(byte[] bytes, int start, int end) {
+		int i = start;
+		final boolean negative = (i < end && bytes[i] == '-');
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) i++;
+
+		// the significant digits and the decimal exponent
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean anyDigit = false;
+		for (; i < end && isDigit(bytes[i]); i++) {
+			if (mantissa > 0) digits++;
+			mantissa = 10 * mantissa + (bytes[i] - '0');
+			anyDigit = true;
+			if (digits >= MAX_DIGITS) return fallback(bytes, start, end);
+		}
+		if (i < end && bytes[i] == '.') {
+			for (i++; i < end && isDigit(bytes[i]); i++) {
+				if (mantissa > 0) digits++;
+				mantissa = 10 * mantissa + (bytes[i] - '0');
+				exponent--;
+				anyDigit = true;
+				if (digits >= MAX_DIGITS) return fallback(bytes, start, end);
+			}
+		}
+		if (anyDigit && i < end && (bytes[i] == 'E' || bytes[i] == 'e')) {
+			i++;
+			final boolean negativeExponent = (i < end && bytes[i] == '-');
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) i++;
+			int value = 0;
+			final int first = i;
+			for (; i < end && isDigit(bytes[i]) && i - first < 4; i++) {
+				value = 10 * value + (bytes[i] - '0');
+			}
+			if (i == first) return fallback(bytes, start, end);
+			exponent += negativeExponent ? -value : value;
+		}
+		if (!anyDigit || i != end) return fallback(bytes, start, end);
+
+		if (mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		final double value;
+		if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+			value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_FIVE.length) {
+			value = divide(mantissa, -exponent);
+		} else {
+			return fallback(bytes, start, end);
+		}
+		return negative ? -value : value;
+	}
+
+	/** Correctly rounded <i>mantissa / 10^k</i>, i.e. the quotient by <i>5^k</i> scaled by <i>2^-k</i>. */
+	private static double divide(long mantissa, int k) {
+		final long divisor = POWERS_OF_FIVE[k];
+		final int divisorZeros = Long.numberOfLeadingZeros(divisor);
+
+		// long division until the quotient has two more bits than a double, the remainder is the sticky bit
+		long quotient = mantissa / divisor;
+		long remainder = mantissa % divisor;
+		int shift = 0;
+		while (quotient < (1L << 55)) {
+			final int bits = Math.min(divisorZeros - 1, 56 - (64 - Long.numberOfLeadingZeros(quotient)));
+			remainder <<= bits;
+			quotient = (quotient << bits) | (remainder / divisor);
+			remainder %= divisor;
+			shift += bits;
+		}
+
+		// round half to even to 53 bits
+		final int drop = (64 - Long.numberOfLeadingZeros(quotient)) - 53;
+		final long half = 1L << (drop - 1);
+		final long low = quotient & ((1L << drop) - 1);
+		quotient >>>= drop;
+		if (low > half || (low == half && (remainder != 0 || (quotient & 1) != 0))) {
+			quotient++;
+		}
+		return Math.scalb((double) quotient, drop - shift - k);
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static double fallback(byte[] bytes, int start, int end) {
+		return Double.parseDouble(string(bytes, start, end));
+	}
+
+	private static String string(byte[] bytes, int start, int end) {
+		return new String(bytes, start, end - start, UTF8);
+	}
+}
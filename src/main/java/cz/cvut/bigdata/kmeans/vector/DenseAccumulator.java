@@ -0,0 +1,133 @@
+package cz.cvut.bigdata.kmeans.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Running sum of sparse vectors over dense term ids, kept in a primitive
+ * array of the sums interleaved with their Kahan compensations, either on
+ * the heap or in a direct buffer off the heap. Adding a vector is a tight
+ * loop over its entries and the memory is given by the dimension only.
+ * Only the range up to the highest index added so far is read or cleared.
+ */
+public class DenseAccumulator {
+
+	private final boolean direct;
+	/** Highest dimension, so that both the interleaved array and the buffer are indexed by an int. */
+	private final int maxDimension;
+	private double[] sums;
+	private DoubleBuffer buffer;
+	private int dimension;
+	private int limit = 0;
+
+	public DenseAccumulator(int dimension, boolean direct) {
+		this.direct = direct;
+		maxDimension = direct ? Integer.MAX_VALUE / 16 : Integer.MAX_VALUE / 2;
+		allocate(Math.max(1, dimension));
+	}
+
+	public void add(VectorWritable vector) {
+		add(vector, 1.0);
+	}
+
+	/** Add the vector multiplied by the given factor. */
+	public void add(VectorWritable vector, double factor) {
+		if (vector.size == 0) return;
+		ensureDimension(vector.indices[vector.size - 1] + 1);
+
+		final long[] indices = vector.indices;
+		final double[] values = vector.values;
+		if (direct) {
+			for (int i = 0; i < vector.size; i++) {
+				final int slot = 2 * (int) indices[i];
+				final double sum = buffer.get(slot);
+				final double y = values[i] * factor - buffer.get(slot + 1);
+				final double t = sum + y;
+				buffer.put(slot + 1, (t - sum) - y);
+				buffer.put(slot, t);
+			}
+		} else {
+			final double[] sums = this.sums;
+			for (int i = 0; i < vector.size; i++) {
+				final int slot = 2 * (int) indices[i];
+				final double sum = sums[slot];
+				final double y = values[i] * factor - sums[slot + 1];
+				final double t = sum + y;
+				sums[slot + 1] = (t - sum) - y;
+				sums[slot] = t;
+			}
+		}
+		limit = Math.max(limit, (int) indices[vector.size - 1] + 1);
+	}
+
+	/** Copy the non-zero sums into the given vector. */
+	public void toVector(VectorWritable vector) {
+		toVector(vector, 1.0, -Double.MAX_VALUE);
+	}
+
+	/** Divide the sums by the number of the vectors into the given mean, dropping the values below the threshold. */
+	public void toMean(VectorWritable mean, long vectorCount) {
+		toVector(mean, vectorCount, VectorUtils.MIN_VALUE_THRESHOLD);
+	}
+
+	public void clear() {
+		if (direct) {
+			for (int i = 0; i < 2 * limit; i++) {
+				buffer.put(i, 0.0);
+			}
+		} else {
+			Arrays.fill(sums, 0, 2 * limit, 0.0);
+		}
+		limit = 0;
+	}
+
+	private void toVector(VectorWritable vector, double divisor, double threshold) {
+		vector.clear();
+		int count = 0;
+		for (int i = 0; i < limit; i++) {
+			if (sum(i) != 0.0) count++;
+		}
+		vector.ensureCapacity(count);
+		for (int i = 0; i < limit; i++) {
+			final double sum = sum(i);
+			if (sum == 0.0) continue;
+			final double value = sum / divisor;
+			if (value >= threshold) {
+				vector.indices[vector.size] = i;
+				vector.values[vector.size++] = value;
+			}
+		}
+	}
+
+	/** The compensated sum of the index. */
+	private double sum(int index) {
+		return direct ? buffer.get(2 * index) - buffer.get(2 * index + 1) : sums[2 * index] - sums[2 * index + 1];
+	}
+
+	private void ensureDimension(long minDimension) {
+		if (minDimension <= dimension) return;
+		if (minDimension > maxDimension) throw new IllegalArgumentException("too large dimension: " + minDimension);
+
+		final double[] oldSums = sums;
+		final DoubleBuffer oldBuffer = buffer;
+		allocate((int) Math.min(maxDimension, Math.max(minDimension, 2L * dimension)));
+		if (direct) {
+			for (int i = 0; i < 2 * limit; i++) {
+				buffer.put(i, oldBuffer.get(i));
+			}
+		} else {
+			System.arraycopy(oldSums, 0, sums, 0, 2 * limit);
+		}
+	}
+
+	private void allocate(int dimension) {
+		this.dimension = dimension;
+		if (direct) {
+			buffer = ByteBuffer.allocateDirect(16 * dimension).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		} else {
+			sums = new double[2 * dimension];
+		}
+	}
+}
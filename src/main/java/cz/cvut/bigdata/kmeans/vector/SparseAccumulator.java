@@ -0,0 +1,93 @@
+package cz.cvut.bigdata.kmeans.vector;
+
+import java.util.Arrays;
+
+/**
+ * Running sum of sparse vectors kept in an open-addressing hash table of
+ * primitive indices and values. Adding a vector costs its number of
+ * non-zero entries regardless of how large the sum already is.
+ */
+public class SparseAccumulator {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private double[] sums = new double[INITIAL_CAPACITY];
+	private boolean[] used = new boolean[INITIAL_CAPACITY];
+	private int size = 0;
+
+	public void add(VectorWritable vector) {
+		// keep the load factor under one half
+		if (2 * (size + vector.size) > keys.length) {
+			resize(2 * (size + vector.size));
+		}
+		for (int i = 0; i < vector.size; i++) {
+			int slot = slot(vector.indices[i]);
+			if (!used[slot]) {
+				used[slot] = true;
+				keys[slot] = vector.indices[i];
+				size++;
+			}
+			sums[slot] += vector.values[i];
+		}
+	}
+
+	/** Number of distinct indices in the sum. */
+	public int size() {
+		return size;
+	}
+
+	/** Copy the sum into the given vector, sorted by index. */
+	public void toVector(VectorWritable vector) {
+		vector.clear();
+		vector.ensureCapacity(size);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (used[slot]) {
+				vector.indices[vector.size] = keys[slot];
+				vector.values[vector.size++] = sums[slot];
+			}
+		}
+		vector.sortByIndex();
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(used, false);
+			Arrays.fill(sums, 0.0);
+			size = 0;
+		}
+	}
+
+	/** Find the slot holding the index, or the free slot where it belongs. */
+	private int slot(long index) {
+		final int mask = keys.length - 1;
+		long hash = index * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (used[slot] && keys[slot] != index) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void resize(int minCapacity) {
+		int capacity = keys.length;
+		while (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+
+		final long[] oldKeys = keys;
+		final double[] oldSums = sums;
+		final boolean[] oldUsed = used;
+		keys = new long[capacity];
+		sums = new double[capacity];
+		used = new boolean[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				sums[slot] = oldSums[i];
+			}
+		}
+	}
+}
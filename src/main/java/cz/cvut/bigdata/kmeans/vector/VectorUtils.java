@@ -1,75 +1,304 @@
 package cz.cvut.bigdata.kmeans.vector;
 
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.Arrays;
 
 public class VectorUtils {
 
 	public static final double MIN_VALUE_THRESHOLD = 1.0 / 100000.0;
 
+	/** Size ratio from which the galloping kernels beat the linear merge. */
+	public static final int GALLOP_RATIO = 8;
+
 	private VectorUtils() { }
 
 	public static void normalize(VectorWritable vector) {
-		final Set<Long> indices = vector.indices();
+		final double[] values = vector.values;
+		final int size = vector.size;
 
 		double sum = 0.0;
-		for (Long index : indices) {
-			sum += vector.get(index);
+		for (int i = 0; i < size; i++) {
+			sum += values[i];
 		}
-		for (Long index : indices) {
-			double value = vector.get(index);
-			vector.set(index, value / sum);
+		for (int i = 0; i < size; i++) {
+			values[i] /= sum;
 		}
 	}
 
 	public static double cosineSimilarity(VectorWritable one, VectorWritable two) {
-		double similarity = 0.0;
+		return dot(one, two);
+	}
+
+	public static double euclideanDistance(VectorWritable one, VectorWritable two) {
+		return Math.sqrt(squaredEuclideanDistance(one, two));
+	}
 
-		final Set<Long> indices = (one.size() <= two.size()) ? one.indices() : two.indices();
-		for (Long index : indices) {
-			similarity += one.get(index) * two.get(index);
+	/**
+	 * Dot product of two sparse vectors. Uses the galloping search when one
+	 * of the vectors is much sparser than the other, otherwise the linear merge.
+	 */
+	public static double dot(VectorWritable one, VectorWritable two) {
+		final VectorWritable smaller = (one.size <= two.size) ? one : two;
+		final VectorWritable larger = (smaller == one) ? two : one;
+		if (smaller.size * GALLOP_RATIO < larger.size) {
+			return gallopingDot(smaller, larger);
 		}
+		return mergeDot(one, two);
+	}
+
+	/** Dot product computed by a linear merge over both sorted index arrays. */
+	public static double mergeDot(VectorWritable one, VectorWritable two) {
+		final long[] oneIndices = one.indices, twoIndices = two.indices;
+		final double[] oneValues = one.values, twoValues = two.values;
 
-		return similarity;
+		double dot = 0.0;
+		int i = 0, j = 0;
+		while (i < one.size && j < two.size) {
+			final long a = oneIndices[i], b = twoIndices[j];
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				dot += oneValues[i++] * twoValues[j++];
+			}
+		}
+		return dot;
 	}
 
-	public static double euclideanDistance(VectorWritable one, VectorWritable two) {
-		double distance = 0.0;
+	/** Dot product which gallops through the larger vector for each index of the smaller one. */
+	public static double gallopingDot(VectorWritable smaller, VectorWritable larger) {
+		final long[] largerIndices = larger.indices;
+
+		double dot = 0.0;
+		int from = 0;
+		for (int i = 0; i < smaller.size && from < larger.size; i++) {
+			final int position = gallop(largerIndices, from, larger.size, smaller.indices[i]);
+			if (position >= 0) {
+				dot += smaller.values[i] * larger.values[position];
+				from = position + 1;
+			} else {
+				from = -(position + 1);
+			}
+		}
+		return dot;
+	}
 
-		final Set<Long> indices = new LinkedHashSet<Long>();
-		indices.addAll(one.indices());
-		indices.addAll(two.indices());
+	/** Squared Euclidean distance computed by a linear merge over both sorted index arrays. */
+	public static double squaredEuclideanDistance(VectorWritable one, VectorWritable two) {
+		final long[] oneIndices = one.indices, twoIndices = two.indices;
+		final double[] oneValues = one.values, twoValues = two.values;
 
-		for (Long index : indices) {
-			double delta = one.get(index) - two.get(index);
+		double distance = 0.0;
+		int i = 0, j = 0;
+		while (i < one.size && j < two.size) {
+			final long a = oneIndices[i], b = twoIndices[j];
+			final double delta;
+			if (a < b) {
+				delta = oneValues[i++];
+			} else if (a > b) {
+				delta = twoValues[j++];
+			} else {
+				delta = oneValues[i++] - twoValues[j++];
+			}
 			distance += delta * delta;
 		}
-		distance = Math.sqrt(distance);
-
+		for (; i < one.size; i++) {
+			distance += oneValues[i] * oneValues[i];
+		}
+		for (; j < two.size; j++) {
+			distance += twoValues[j] * twoValues[j];
+		}
 		return distance;
 	}
 
+	/**
+	 * Squared Euclidean distance for a sparse vector against a much larger one
+	 * whose squared norm is already known, touching only the entries of the smaller one.
+	 */
+	public static double squaredEuclideanDistance(VectorWritable smaller, VectorWritable larger, double largerSquaredNorm) {
+		final double distance = squaredNorm(smaller) + largerSquaredNorm - 2.0 * gallopingDot(smaller, larger);
+		return (distance > 0.0) ? distance : 0.0;
+	}
+
+	public static double squaredNorm(VectorWritable vector) {
+		final double[] values = vector.values;
+
+		double norm = 0.0;
+		for (int i = 0; i < vector.size; i++) {
+			norm += values[i] * values[i];
+		}
+		return norm;
+	}
+
+	/**
+	 * Exponential search for the key in the sorted range, followed by a binary search
+	 * within the bracket found. Returns the position of the key, or
+	 * <i>-(insertion point) - 1</i> if it is not present.
+	 */
+	static int gallop(long[] indices, int from, int to, long key) {
+		int low = from, step = 1, high = from;
+		while (high < to && indices[high] < key) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		if (high >= to) {
+			high = to - 1;
+		}
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final long index = indices[middle];
+			if (index < key) {
+				low = middle + 1;
+			} else if (index > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
 	public static void addToMean(VectorWritable mean, VectorWritable vector) {
-		for (Long index : vector.indices()) {
-			double value = mean.get(index);
-			mean.set(index, value + vector.get(index));
+		final long[] vectorIndices = vector.indices;
+		final double[] vectorValues = vector.values;
+
+		// count the size of the union of both index sets
+		int union = mean.size + vector.size;
+		for (int i = 0, j = 0; i < mean.size && j < vector.size; ) {
+			if (mean.indices[i] < vectorIndices[j]) {
+				i++;
+			} else if (mean.indices[i] > vectorIndices[j]) {
+				j++;
+			} else {
+				union--;
+				i++;
+				j++;
+			}
+		}
+		mean.ensureCapacity(union);
+
+		// merge in place from the back, so no entry is overwritten before it is moved
+		final long[] indices = mean.indices;
+		final double[] values = mean.values;
+		int i = mean.size - 1, j = vector.size - 1, w = union - 1;
+		while (j >= 0) {
+			if (i >= 0 && indices[i] > vectorIndices[j]) {
+				indices[w] = indices[i];
+				values[w] = values[i--];
+			} else if (i >= 0 && indices[i] == vectorIndices[j]) {
+				indices[w] = indices[i];
+				values[w] = values[i--] + vectorValues[j--];
+			} else {
+				indices[w] = vectorIndices[j];
+				values[w] = vectorValues[j--];
+			}
+			w--;
+		}
+		mean.size = union;
+	}
+
+	public static void scale(VectorWritable vector, double factor) {
+		for (int i = 0; i < vector.size; i++) {
+			vector.values[i] *= factor;
 		}
 	}
 
-	public static void normalizeMean(VectorWritable mean, int vectorCount) {
-		final LinkedList<Long> zeros = new LinkedList<Long>();
-		for (Long index : mean.indices()) {
-			double value = mean.get(index) / vectorCount;
-			if (value < MIN_VALUE_THRESHOLD) {
-				zeros.add(index);
+	public static void normalizeMean(VectorWritable mean, long vectorCount) {
+		final long[] indices = mean.indices;
+		final double[] values = mean.values;
+
+		// divide and drop the values below the threshold in one pass
+		int w = 0;
+		for (int i = 0; i < mean.size; i++) {
+			double value = values[i] / vectorCount;
+			if (value >= MIN_VALUE_THRESHOLD) {
+				indices[w] = indices[i];
+				values[w++] = value;
+			}
+		}
+		mean.size = w;
+	}
+
+	/**
+	 * Keep only the largest values, at most the given number of them and no
+	 * more than needed to reach the given fraction of their total, returning
+	 * the sum of the dropped values. The ties go to the lower indices.
+	 */
+	public static double truncate(VectorWritable vector, int maxEntries, double mass) {
+		final int size = vector.size;
+		final double[] values = vector.values;
+		if (maxEntries >= size && mass >= 1.0) return 0.0;
+
+		final double[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		double total = 0.0;
+		for (int i = 0; i < size; i++) {
+			total += values[i];
+		}
+
+		// take the largest values until either of the limits is reached
+		int keep = 0;
+		double kept = 0.0;
+		while (keep < Math.min(maxEntries, size) && (mass >= 1.0 || kept < mass * total)) {
+			kept += sorted[size - 1 - keep];
+			keep++;
+		}
+		if (keep == size) return 0.0;
+		final double threshold = (keep > 0) ? sorted[size - keep] : Double.POSITIVE_INFINITY;
+		int ties = 0;
+		for (int i = size - keep; i < size; i++) {
+			if (sorted[i] == threshold) ties++;
+		}
+
+		final long[] indices = vector.indices;
+		double dropped = 0.0;
+		int w = 0;
+		for (int i = 0; i < size; i++) {
+			final double value = values[i];
+			if (value > threshold || (value == threshold && ties-- > 0)) {
+				indices[w] = indices[i];
+				values[w++] = value;
 			} else {
-				mean.set(index, value);
+				dropped += value;
+			}
+		}
+		vector.size = w;
+		return dropped;
+	}
+
+	/** Replace each index by the id at its position among the sorted indices and drop the entries without any. */
+	public static void remap(VectorWritable vector, long[] sortedIndices, int[] ids) {
+		final long[] indices = vector.indices;
+		final double[] values = vector.values;
+
+		int w = 0;
+		for (int i = 0; i < vector.size; i++) {
+			final int position = Arrays.binarySearch(sortedIndices, indices[i]);
+			if (position >= 0) {
+				indices[w] = ids[position];
+				values[w++] = values[i];
 			}
 		}
-		for (Long index : zeros) {
-			mean.setZero(index);
+		vector.size = w;
+		vector.sortByIndex();
+	}
+
+	/** Replace each index by the mapped index at the position given by the index itself and drop the entries without any. */
+	public static void remap(VectorWritable vector, long[] mappedIndices) {
+		final long[] indices = vector.indices;
+		final double[] values = vector.values;
+
+		int w = 0;
+		for (int i = 0; i < vector.size; i++) {
+			final long index = indices[i];
+			if (index >= 0 && index < mappedIndices.length) {
+				indices[w] = mappedIndices[(int) index];
+				values[w++] = values[i];
+			}
 		}
+		vector.size = w;
+		vector.sortByIndex();
 	}
 
 }
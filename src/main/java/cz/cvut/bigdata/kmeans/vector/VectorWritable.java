@@ -1,76 +1,361 @@
 package cz.cvut.bigdata.kmeans.vector;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 
-public class VectorWritable implements WritableComparable<VectorWritable> {
+/**
+ * Sparse vector stored as parallel primitive arrays of indices and values
+ * kept sorted by the index. The arrays are reused between records, so the
+ * vector does not allocate once its capacity settles.
+ * <p/>
+ * The serialized form is chosen by the {@link #ENCODING} key. Apart from
+ * the plain encoding, a record starts with a flag byte naming its encoding,
+ * so records of any encoding can be read back regardless of the setting.
+ */
+public class VectorWritable implements WritableComparable<VectorWritable>, Configurable {
 
-	private final Map<Long, Double> values = new LinkedHashMap<Long, Double>();
+	/** Encoding of the written vectors: <i>plain</i>, <i>delta</i> (default), <i>float</i> or <i>quantized</i>. */
+	public static final String ENCODING = "kmeans.vector.encoding";
 
-	public Double get(Long index) {
-		return values.containsKey(index) ? values.get(index) : 0.0;
+	public enum Encoding {
+		/** Size as an int, then an 8-byte index and an 8-byte value per entry. */
+		PLAIN,
+		/** Size and the index gaps as variable-length integers, values as doubles. */
+		DELTA,
+		/** Like the delta encoding, but values rounded to floats. */
+		FLOAT,
+		/** Like the delta encoding, but values quantized to 16 bits relative to the largest magnitude. */
+		QUANTIZED
 	}
 
-	public void set(Long index, Double value) {
-		values.put(index, value);
+	private static final Encoding[] ENCODINGS = Encoding.values();
+	private static final int ENCODING_FLAG = 0x80;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Configuration conf;
+	private Encoding encoding = Encoding.DELTA;
+
+	// package-private for the kernels in VectorUtils
+	long[] indices = new long[INITIAL_CAPACITY];
+	double[] values = new double[INITIAL_CAPACITY];
+	int size = 0;
+
+	// scratch buffers used only when sorting unsorted input
+	private long[] sortIndices;
+	private double[] sortValues;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		if (conf != null) {
+			final String name = conf.get(ENCODING, "delta");
+			try {
+				// the names are ASCII, e.g. the Turkish locale would turn "plain" into "PLAİN"
+				encoding = Encoding.valueOf(name.toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown vector encoding: " + name + " (plain, delta, float or quantized)");
+			}
+		}
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(Encoding encoding) {
+		this.encoding = encoding;
+	}
+
+	public double get(long index) {
+		final int position = find(index);
+		return (position >= 0) ? values[position] : 0.0;
+	}
+
+	public void set(long index, double value) {
+		int position = find(index);
+		if (position >= 0) {
+			values[position] = value;
+		} else {
+			position = -(position + 1);
+			ensureCapacity(size + 1);
+			System.arraycopy(indices, position, indices, position + 1, size - position);
+			System.arraycopy(values, position, values, position + 1, size - position);
+			indices[position] = index;
+			values[position] = value;
+			size++;
+		}
 	}
 
-	public void setZero(Long index) {
-		if (values.containsKey(index)) {
-			values.remove(index);
+	public void setZero(long index) {
+		final int position = find(index);
+		if (position >= 0) {
+			System.arraycopy(indices, position + 1, indices, position, size - position - 1);
+			System.arraycopy(values, position + 1, values, position, size - position - 1);
+			size--;
 		}
 	}
 
-	public Set<Long> indices() {
-		return values.keySet();
+	/** Returns the position of the given index, or <i>-(insertion point) - 1</i> if it is not present. */
+	public int find(long index) {
+		return Arrays.binarySearch(indices, 0, size, index);
+	}
+
+	public long indexAt(int position) {
+		return indices[position];
+	}
+
+	public double valueAt(int position) {
+		return values[position];
+	}
+
+	public void setValueAt(int position, double value) {
+		values[position] = value;
 	}
 
 	public int size() {
-		return values.size();
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity > indices.length) {
+			final int newCapacity = Math.max(capacity, 2 * indices.length);
+			indices = Arrays.copyOf(indices, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
 	}
 
 	public VectorWritable parse(String text) {
 		final String[] parts = StringUtils.split(text);
 		if (parts == null) throw new IllegalArgumentException();
-		values.clear();
+		clear();
+		ensureCapacity(parts.length);
 		for (String part : parts) {
 			String[] val = StringUtils.split(part, ':');
 			if (val.length < 2) throw new IllegalArgumentException();
-			values.put(Long.parseLong(val[0]), Double.parseDouble(val[1]));
+			indices[size] = Long.parseLong(val[0]);
+			values[size] = Double.parseDouble(val[1]);
+			size++;
 		}
+		sortByIndex();
 		return this;
 	}
 
+	/** Parse the <i>index:value</i> entries of the text without decoding it into a String. */
+	public VectorWritable parse(Text text) {
+		return parse(text.getBytes(), 0, text.getLength());
+	}
+
+	/** Parse the <i>index:value</i> entries separated by whitespace of the given range of the UTF-8 bytes. */
+	public VectorWritable parse(byte[] bytes, int start, int length) {
+		final int end = start + length;
+		clear();
+		int i = start;
+		while (true) {
+			while (i < end && isWhitespace(bytes[i])) i++;
+			if (i == end) break;
+
+			// find the colons and the end of the entry, anything after a second colon is ignored
+			final int entry = i;
+			int colon = -1, valueEnd = -1;
+			while (i < end && !isWhitespace(bytes[i])) {
+				if (bytes[i] == ':') {
+					if (colon < 0) {
+						colon = i;
+					} else if (valueEnd < 0) {
+						valueEnd = i;
+					}
+				}
+				i++;
+			}
+			if (colon < 0) throw new IllegalArgumentException();
+
+			ensureCapacity(size + 1);
+			indices[size] = DecimalParser.parseLong(bytes, entry, colon);
+			values[size] = DecimalParser.parseDouble(bytes, colon + 1, (valueEnd < 0) ? i : valueEnd);
+			size++;
+		}
+		sortByIndex();
+		return this;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0b;
+	}
+
 	public void copy(VectorWritable vector) {
-		values.clear();
-		for (Map.Entry<Long, Double> value : vector.values.entrySet()) {
-			values.put(value.getKey(), value.getValue());
+		clear();
+		ensureCapacity(vector.size);
+		System.arraycopy(vector.indices, 0, indices, 0, vector.size);
+		System.arraycopy(vector.values, 0, values, 0, vector.size);
+		size = vector.size;
+	}
+
+	/** Fill the vector with the given number of entries of the buffers, which have to be sorted by the index. */
+	public void read(LongBuffer indexBuffer, DoubleBuffer valueBuffer, int size) {
+		clear();
+		ensureCapacity(size);
+		indexBuffer.get(indices, 0, size);
+		valueBuffer.get(values, 0, size);
+		this.size = size;
+	}
+
+	/** Sorts the entries by index, the last value of a duplicate index wins. */
+	void sortByIndex() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++) {
+			sorted = indices[i - 1] < indices[i];
+		}
+		if (sorted) return;
+
+		if (sortIndices == null || sortIndices.length < size) {
+			sortIndices = new long[indices.length];
+			sortValues = new double[values.length];
+		}
+		mergeSort(0, size);
+
+		// drop duplicates, keeping the later occurrence
+		int last = 0;
+		for (int i = 1; i < size; i++) {
+			if (indices[i] != indices[last]) {
+				last++;
+			}
+			indices[last] = indices[i];
+			values[last] = values[i];
+		}
+		size = last + 1;
+	}
+
+	/** Stable merge sort of the given range by index. */
+	private void mergeSort(int from, int to) {
+		if (to - from < 2) return;
+		final int middle = (from + to) >>> 1;
+		mergeSort(from, middle);
+		mergeSort(middle, to);
+		if (indices[middle - 1] <= indices[middle]) return;
+
+		System.arraycopy(indices, from, sortIndices, from, to - from);
+		System.arraycopy(values, from, sortValues, from, to - from);
+		int i = from, j = middle, w = from;
+		while (i < middle && j < to) {
+			if (sortIndices[j] < sortIndices[i]) {
+				indices[w] = sortIndices[j];
+				values[w++] = sortValues[j++];
+			} else {
+				indices[w] = sortIndices[i];
+				values[w++] = sortValues[i++];
+			}
+		}
+		while (i < middle) {
+			indices[w] = sortIndices[i];
+			values[w++] = sortValues[i++];
+		}
+		while (j < to) {
+			indices[w] = sortIndices[j];
+			values[w++] = sortValues[j++];
 		}
 	}
 
 	@Override
 	public void write(DataOutput out) throws IOException {
-		out.writeInt(values.size());
-		for (Map.Entry<Long, Double> value : values.entrySet()) {
-			out.writeLong(value.getKey());
-			out.writeDouble(value.getValue());
+		if (encoding == Encoding.PLAIN) {
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(indices[i]);
+				out.writeDouble(values[i]);
+			}
+			return;
+		}
+
+		out.writeByte(ENCODING_FLAG | encoding.ordinal());
+		WritableUtils.writeVInt(out, size);
+		double scale = 0.0;
+		if (encoding == Encoding.QUANTIZED) {
+			for (int i = 0; i < size; i++) {
+				scale = Math.max(scale, Math.abs(values[i]));
+			}
+			out.writeDouble(scale);
+		}
+
+		long previous = 0;
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVLong(out, indices[i] - previous);
+			previous = indices[i];
+			switch (encoding) {
+				case DELTA:
+					out.writeDouble(values[i]);
+					break;
+				case FLOAT:
+					out.writeFloat((float) values[i]);
+					break;
+				case QUANTIZED:
+					out.writeShort((scale > 0.0) ? (int) Math.round(values[i] / scale * Short.MAX_VALUE) : 0);
+					break;
+			}
 		}
 	}
 
 	@Override
 	public void readFields(DataInput in) throws IOException {
-		values.clear();
-		final int size = in.readInt();
-		for (int i = 0; i < size; i++) {
-			values.put(in.readLong(), in.readDouble());
+		clear();
+		final int first = in.readUnsignedByte();
+		if ((first & ENCODING_FLAG) == 0) {
+			// plain encoding, the first byte is the highest byte of the size
+			final int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+			ensureCapacity(length);
+			for (int i = 0; i < length; i++) {
+				indices[i] = in.readLong();
+				values[i] = in.readDouble();
+			}
+			size = length;
+			sortByIndex();
+			return;
 		}
+
+		final int ordinal = first & ~ENCODING_FLAG;
+		if (ordinal >= ENCODINGS.length) throw new IOException("unknown vector encoding: " + ordinal);
+		final Encoding recordEncoding = ENCODINGS[ordinal];
+		final int length = WritableUtils.readVInt(in);
+		ensureCapacity(length);
+		final double scale = (recordEncoding == Encoding.QUANTIZED) ? in.readDouble() : 0.0;
+
+		long previous = 0;
+		for (int i = 0; i < length; i++) {
+			previous += WritableUtils.readVLong(in);
+			indices[i] = previous;
+			switch (recordEncoding) {
+				case DELTA:
+					values[i] = in.readDouble();
+					break;
+				case FLOAT:
+					values[i] = in.readFloat();
+					break;
+				case QUANTIZED:
+					values[i] = in.readShort() * scale / Short.MAX_VALUE;
+					break;
+			}
+		}
+		size = length;
 	}
 
 	@Override
@@ -85,21 +370,31 @@ public class VectorWritable implements WritableComparable<VectorWritable> {
 		if (!(o instanceof VectorWritable)) return false;
 
 		final VectorWritable that = (VectorWritable) o;
-		return values.equals(that.values);
+		if (size != that.size) return false;
+		for (int i = 0; i < size; i++) {
+			if (indices[i] != that.indices[i]) return false;
+			if (Double.doubleToLongBits(values[i]) != Double.doubleToLongBits(that.values[i])) return false;
+		}
+		return true;
 	}
 
 	@Override
 	public int hashCode() {
-		return values.hashCode();
+		int hash = 0;
+		for (int i = 0; i < size; i++) {
+			final long bits = Double.doubleToLongBits(values[i]);
+			hash += (int) (indices[i] ^ (indices[i] >>> 32)) ^ (int) (bits ^ (bits >>> 32));
+		}
+		return hash;
 	}
 
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
-		for (Map.Entry<Long, Double> value : values.entrySet()) {
-			sb.append(value.getKey()).append(':').append(value.getValue()).append(' ');
+		for (int i = 0; i < size; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(indices[i]).append(':').append(values[i]);
 		}
-		sb.delete(sb.length() - 1, sb.length());
 		return sb.toString();
 	}
 }
@@ -0,0 +1,85 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CentroidSnapshotTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testSingleMapping() throws IOException {
+		final VectorWritable[] centroids = randomCentroids(20, 100);
+		assertSnapshot(centroids, CentroidSnapshot.map(write(centroids)));
+	}
+
+	@Test
+	public void testChunkedMapping() throws IOException {
+		// chunks of a few centroids each, the largest centroid just fits into a chunk
+		final VectorWritable[] centroids = randomCentroids(50, 100);
+		int maxSize = 0;
+		for (VectorWritable centroid : centroids) {
+			maxSize = Math.max(maxSize, centroid.size());
+		}
+		final File file = write(centroids);
+		assertSnapshot(centroids, CentroidSnapshot.map(file, 16L * maxSize));
+		assertSnapshot(centroids, CentroidSnapshot.map(file, 16L * maxSize + 1));
+		assertSnapshot(centroids, CentroidSnapshot.map(file, 100L * maxSize));
+	}
+
+	@Test
+	public void testEmptyCentroids() throws IOException {
+		final VectorWritable[] centroids = {new VectorWritable(), randomCentroids(1, 10)[0], new VectorWritable()};
+		assertSnapshot(centroids, CentroidSnapshot.map(write(centroids), 16));
+		assertSnapshot(new VectorWritable[0], CentroidSnapshot.map(write(new VectorWritable[0])));
+	}
+
+	@Test
+	public void testTooLargeCentroid() throws IOException {
+		final VectorWritable[] centroids = randomCentroids(3, 100);
+		try {
+			CentroidSnapshot.map(write(centroids), 16);
+			fail("mapped a centroid larger than a chunk");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private VectorWritable[] randomCentroids(int count, int maxSize) {
+		final VectorWritable[] centroids = new VectorWritable[count];
+		for (int c = 0; c < count; c++) {
+			centroids[c] = new VectorWritable();
+			final int size = 1 + random.nextInt(maxSize);
+			for (int i = 0; i < size; i++) {
+				centroids[c].set(random.nextInt(1 << 20), random.nextDouble());
+			}
+		}
+		return centroids;
+	}
+
+	private static File write(VectorWritable[] centroids) throws IOException {
+		final File file = File.createTempFile("centroids", ".snapshot");
+		file.deleteOnExit();
+		CentroidSnapshot.write(FileSystem.getLocal(new Configuration()).getRaw(), new Path(file.getPath()), centroids);
+		return file;
+	}
+
+	private static void assertSnapshot(VectorWritable[] centroids, CentroidSnapshot snapshot) {
+		assertEquals(centroids.length, snapshot.size());
+		final VectorWritable vector = new VectorWritable();
+		for (int c = 0; c < centroids.length; c++) {
+			snapshot.get(c, vector);
+			assertEquals(centroids[c], vector);
+		}
+	}
+}
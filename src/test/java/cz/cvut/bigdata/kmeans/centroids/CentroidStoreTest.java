@@ -0,0 +1,82 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CentroidStoreTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testStoresAgree() {
+		final VectorWritable[] centroids = new VectorWritable[7];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = randomVector(50, 1000);
+		}
+		final CentroidStore expected = create(centroids, "sparse");
+		final double[] expectedSimilarity = new double[centroids.length];
+		final double[] similarity = new double[centroids.length];
+		for (String kind : new String[]{"dense", "direct", "inverted", "auto"}) {
+			final CentroidStore store = create(centroids, kind);
+			for (int n = 0; n < 100; n++) {
+				final VectorWritable vector = randomVector(30, 1200);
+				expected.similarities(vector, expectedSimilarity);
+				store.similarities(vector, similarity);
+				for (int i = 0; i < centroids.length; i++) {
+					assertEquals(kind, expectedSimilarity[i], similarity[i], 1e-12);
+					assertEquals(kind, expectedSimilarity[i], store.similarity(i, vector), 1e-12);
+				}
+				assertEquals(kind, expected.nearest(vector, expectedSimilarity), store.nearest(vector, similarity));
+			}
+		}
+	}
+
+	@Test
+	public void testTooLargeMatrix() {
+		// the matrix of 4 x 2^30 cells overflows an int, even if the dense store is forced
+		final VectorWritable[] centroids = new VectorWritable[4];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = new VectorWritable();
+		}
+		centroids[0].set((1L << 30) - 1, 1.0);
+
+		assertEquals(InvertedCentroidStore.class, create(centroids, "auto").getClass());
+		assertEquals(InvertedCentroidStore.class, create(centroids, "direct").getClass());
+		assertRejected(centroids, "dense");
+		try {
+			new DirectCentroidStore(centroids);
+			fail("created the too large direct matrix");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private VectorWritable randomVector(int size, int dimension) {
+		final VectorWritable vector = new VectorWritable();
+		for (int i = 0; i < size; i++) {
+			vector.set(random.nextInt(dimension), random.nextDouble());
+		}
+		return vector;
+	}
+
+	private static CentroidStore create(VectorWritable[] centroids, String kind) {
+		final Configuration conf = new Configuration(false);
+		conf.set(CentroidStore.STORE, kind);
+		return CentroidStore.create(centroids, conf);
+	}
+
+	private static void assertRejected(VectorWritable[] centroids, String kind) {
+		try {
+			create(centroids, kind);
+			fail("created the too large " + kind + " matrix");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
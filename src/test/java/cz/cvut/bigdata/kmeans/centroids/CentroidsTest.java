@@ -0,0 +1,82 @@
+package cz.cvut.bigdata.kmeans.centroids;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CentroidsTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testSingleCentroidFromTextIsCopy() throws IOException {
+		final VectorWritable[] centroids = randomCentroids(4);
+		final File file = File.createTempFile("centroids", ".txt");
+		file.deleteOnExit();
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for (int i = 0; i < centroids.length; i++) {
+				writer.write(i + "\t" + centroids[i] + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		assertSingleCentroidIsCopy(centroids, configuration(file, "text"));
+	}
+
+	@Test
+	public void testSingleCentroidFromSnapshotIsCopy() throws IOException {
+		final VectorWritable[] centroids = randomCentroids(4);
+		final File dir = File.createTempFile("centroids", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		final File file = new File(dir, CentroidSnapshot.NAME);
+		file.deleteOnExit();
+		CentroidSnapshot.write(FileSystem.getLocal(new Configuration()).getRaw(), new Path(file.getPath()), centroids);
+		assertSingleCentroidIsCopy(centroids, configuration(file, "snapshot"));
+	}
+
+	/** Modify each loaded centroid, the cached ones must stay as they were. */
+	private static void assertSingleCentroidIsCopy(VectorWritable[] centroids, Configuration conf) throws IOException {
+		for (int i = 0; i < centroids.length; i++) {
+			final VectorWritable centroid = Centroids.load(conf, centroids.length, i);
+			assertEquals(centroids[i], centroid);
+			centroid.set(1L << 40, 1.0);
+		}
+		for (int i = 0; i < centroids.length; i++) {
+			assertEquals(centroids[i], Centroids.load(conf, centroids.length, i));
+			assertEquals(centroids[i], Centroids.load(conf, centroids.length)[i]);
+		}
+	}
+
+	private static Configuration configuration(File cacheFile, String version) {
+		final Configuration conf = new Configuration(false);
+		conf.set(MRJobConfig.CACHE_LOCALFILES, cacheFile.getPath());
+		conf.set(Centroids.VERSION, version);
+		return conf;
+	}
+
+	private VectorWritable[] randomCentroids(int count) {
+		final VectorWritable[] centroids = new VectorWritable[count];
+		for (int c = 0; c < count; c++) {
+			centroids[c] = new VectorWritable();
+			for (int i = 0; i < 20; i++) {
+				centroids[c].set(random.nextInt(1000), random.nextDouble());
+			}
+		}
+		return centroids;
+	}
+}
@@ -0,0 +1,78 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClusterKeyWritableTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testRawComparatorIsRegistered() {
+		assertEquals(ClusterKeyWritable.Comparator.class, WritableComparator.get(ClusterKeyWritable.class).getClass());
+	}
+
+	@Test
+	public void testRandomKeys() throws IOException {
+		for (int i = 0; i < 10000; i++) {
+			assertSameOrder(random.nextInt(), random.nextInt(), random.nextInt(), random.nextInt());
+		}
+	}
+
+	@Test
+	public void testSmallKeys() throws IOException {
+		// the first ints often equal, the ids around zero
+		for (int i = 0; i < 10000; i++) {
+			assertSameOrder(random.nextInt(5) - 2, random.nextInt(7) - 3, random.nextInt(5) - 2, random.nextInt(7) - 3);
+		}
+	}
+
+	@Test
+	public void testExtremeKeys() throws IOException {
+		final int[] values = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -256, -1, 0, 1, 255, 256, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+		for (int cluster1 : values) {
+			for (int cluster2 : values) {
+				for (int document1 : values) {
+					for (int document2 : values) {
+						assertSameOrder(cluster1, document1, cluster2, document2);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEqualKeys() throws IOException {
+		assertSameOrder(3, -7, 3, -7);
+		assertSameOrder(-1, Integer.MIN_VALUE, -1, Integer.MIN_VALUE);
+	}
+
+	private void assertSameOrder(int cluster1, int document1, int cluster2, int document2) throws IOException {
+		final ClusterKeyWritable key1 = new ClusterKeyWritable();
+		final ClusterKeyWritable key2 = new ClusterKeyWritable();
+		key1.set(cluster1, document1);
+		key2.set(cluster2, document2);
+
+		// serialize with a leading garbage byte, so the offsets are exercised
+		final DataOutputBuffer out1 = new DataOutputBuffer();
+		final DataOutputBuffer out2 = new DataOutputBuffer();
+		out1.writeByte(0x7f);
+		out2.writeByte(0x7f);
+		out2.writeByte(0x7f);
+		key1.write(out1);
+		key2.write(out2);
+
+		final ClusterKeyWritable.Comparator comparator = new ClusterKeyWritable.Comparator();
+		final int expected = Integer.signum(key1.compareTo(key2));
+		final String message = key1 + " vs " + key2;
+		assertEquals(message, expected, Integer.signum(comparator.compare(out1.getData(), 1, 8, out2.getData(), 2, 8)));
+		assertEquals(message, -expected, Integer.signum(comparator.compare(out2.getData(), 2, 8, out1.getData(), 1, 8)));
+		assertEquals(message, expected, Integer.signum(comparator.compare(key1, key2)));
+	}
+}
@@ -0,0 +1,289 @@
+package cz.cvut.bigdata.kmeans.clusters;
+
+import cz.cvut.bigdata.kmeans.centroids.Centroids;
+import cz.cvut.bigdata.kmeans.vector.DenseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.SparseAccumulator;
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionPlanTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testRandomPlans() {
+		for (int i = 0; i < 1000; i++) {
+			final int k = 1 + random.nextInt(50);
+			final int reducers = 1 + random.nextInt(20);
+			final int[] sizes = (random.nextInt(5) == 0) ? null : randomSizes(k);
+			assertValid(PartitionPlan.create(sizes, k, reducers), sizes, k, reducers);
+		}
+	}
+
+	@Test
+	public void testFewerClustersThanReducers() {
+		// unknown sizes give each cluster a reducer of its own
+		PartitionPlan plan = PartitionPlan.create(null, 3, 10);
+		assertValid(plan, null, 3, 10);
+		final Set<Integer> used = new HashSet<Integer>();
+		for (int i = 0; i < 3; i++) {
+			assertFalse(plan.isSharded(i));
+			used.add(plan.home(i));
+		}
+		assertEquals(3, used.size());
+
+		// a dominant cluster is spread over all the reducers
+		final int[] sizes = {1000, 1, 1};
+		plan = PartitionPlan.create(sizes, 3, 10);
+		assertValid(plan, sizes, 3, 10);
+		assertEquals(10, plan.shards(0));
+		assertFalse(plan.isSharded(1));
+		assertFalse(plan.isSharded(2));
+
+		// a single cluster
+		plan = PartitionPlan.create(new int[]{0}, 1, 4);
+		assertValid(plan, new int[]{0}, 1, 4);
+		assertFalse(plan.isSharded(0));
+	}
+
+	@Test
+	public void testReducerCounts() {
+		// a single reducer takes all the clusters whole
+		final int[] sizes = {1000, 1, 0, 50};
+		PartitionPlan plan = PartitionPlan.create(sizes, 4, 1);
+		assertValid(plan, sizes, 4, 1);
+		for (int i = 0; i < 4; i++) {
+			assertFalse(plan.isSharded(i));
+			assertEquals(0, plan.home(i));
+		}
+
+		// far more reducers than the vectors
+		plan = PartitionPlan.create(new int[]{2, 1}, 2, 100);
+		assertValid(plan, new int[]{2, 1}, 2, 100);
+
+		for (int reducers : new int[]{0, -1, Integer.MIN_VALUE}) {
+			try {
+				PartitionPlan.create(sizes, 4, reducers);
+				fail("planned onto " + reducers + " reducers");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndRead() {
+		for (int i = 0; i < 100; i++) {
+			final int k = 1 + random.nextInt(50);
+			final int reducers = 1 + random.nextInt(20);
+			final PartitionPlan plan = PartitionPlan.create(randomSizes(k), k, reducers);
+			final Configuration conf = new Configuration(false);
+			plan.write(conf);
+			assertSamePlan(plan, PartitionPlan.read(conf, k, reducers), k);
+
+			// the partitioner sends each slot to its reducer
+			conf.setInt(Centroids.K, k);
+			conf.setInt(MRJobConfig.NUM_REDUCES, reducers);
+			final PlanPartitioner partitioner = new PlanPartitioner();
+			partitioner.setConf(conf);
+			for (int c = 0; c < k; c++) {
+				for (int s = 0; s < plan.shards(c); s++) {
+					final int slot = plan.slot(c, s);
+					assertEquals(plan.reducer(slot), partitioner.getPartition(new IntWritable(slot), null, reducers));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDefaultPlan() {
+		final PartitionPlan plan = PartitionPlan.read(new Configuration(false), 7, 3);
+		assertValid(plan, null, 7, 3);
+		for (int i = 0; i < 7; i++) {
+			assertFalse(plan.isSharded(i));
+			assertEquals(i, plan.slot(i, 0));
+			assertEquals(i % 3, plan.home(i));
+		}
+	}
+
+	@Test
+	public void testShardsSumToCluster() throws IOException {
+		final int k = 5, reducers = 4, tasks = 3;
+		final int[] sizes = {600, 300, 50, 30, 20};
+		final PartitionPlan plan = PartitionPlan.create(sizes, k, reducers);
+		assertTrue(plan.isSharded(0));
+		assertTrue(plan.isSharded(1));
+		assertFalse(plan.isSharded(4));
+
+		// the documents of each cluster, split among the tasks
+		final Configuration conf = new Configuration(false);
+		final VectorWritable[][][] documents = new VectorWritable[tasks][k][];
+		for (int t = 0; t < tasks; t++) {
+			for (int c = 0; c < k; c++) {
+				documents[t][c] = new VectorWritable[sizes[c] / tasks];
+				for (int d = 0; d < documents[t][c].length; d++) {
+					documents[t][c][d] = randomVector(1 + random.nextInt(20), 1000);
+				}
+			}
+		}
+
+		// each task flushes its partial sums several times, a sharded cluster going to one shard after another
+		final int slots = plan.slot(k - 1, 0) + plan.shards(k - 1);
+		final long[] slotCounts = new long[slots];
+		final DenseAccumulator[] slotAccumulators = new DenseAccumulator[slots];
+		for (int s = 0; s < slots; s++) {
+			slotAccumulators[s] = new DenseAccumulator(1000, false);
+		}
+		final SparseAccumulator sum = new SparseAccumulator();
+		final PartialSumWritable partial = new PartialSumWritable();
+		for (int t = 0; t < tasks; t++) {
+			for (int flushes = 0; flushes < 4; flushes++) {
+				for (int c = 0; c < k; c++) {
+					int count = 0;
+					sum.clear();
+					for (int d = flushes; d < documents[t][c].length; d += 4) {
+						sum.add(documents[t][c][d]);
+						count++;
+					}
+					if (count == 0) continue;
+					sum.toVector(partial.getSum());
+					final int slot = plan.slot(c, (t + flushes) % plan.shards(c));
+					slotAccumulators[slot].add(partial.getSum());
+					slotCounts[slot] += count;
+				}
+			}
+		}
+		for (int s = 0; s < slots; s++) {
+			assertTrue(slotCounts[s] > 0);
+		}
+
+		// each reducer writes the sums of its shards sorted by the cluster
+		final FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+		final Path[] files = new Path[reducers];
+		for (int r = 0; r < reducers; r++) {
+			final File file = File.createTempFile("partial", ".seq");
+			file.deleteOnExit();
+			files[r] = new Path(file.getPath());
+			final SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, files[r], IntWritable.class, PartialSumWritable.class);
+			try {
+				for (int s = 0; s < slots; s++) {
+					if (plan.reducer(s) != r || !plan.isSharded(plan.cluster(s))) continue;
+					slotAccumulators[s].toVector(partial.getSum());
+					partial.setCount((int) slotCounts[s]);
+					writer.append(new IntWritable(plan.cluster(s)), partial);
+				}
+			} finally {
+				writer.close();
+			}
+		}
+
+		// the driver merges the shards into the same means as the sums of all the documents
+		final VectorWritable[] centroids = new VectorWritable[k];
+		for (int c = 0; c < k; c++) {
+			centroids[c] = randomVector(10, 1000);
+		}
+		final DenseAccumulator sums = new DenseAccumulator(1000, false);
+		final DenseAccumulator expectedSums = new DenseAccumulator(1000, false);
+		final VectorWritable mean = new VectorWritable();
+		final VectorWritable expected = new VectorWritable();
+		final PartialSumReader partials = new PartialSumReader(conf, files);
+		try {
+			for (int c = 0; c < k; c++) {
+				if (!plan.isSharded(c)) continue;
+				ClusteringReducer.startMean(sums, centroids, null, c);
+				final long vectorCount = partials.add(c, sums);
+				ClusteringReducer.finishMean(sums, mean, null, c, vectorCount);
+
+				ClusteringReducer.startMean(expectedSums, centroids, null, c);
+				for (int t = 0; t < tasks; t++) {
+					for (VectorWritable document : documents[t][c]) {
+						expectedSums.add(document);
+					}
+				}
+				ClusteringReducer.finishMean(expectedSums, expected, null, c, tasks * documents[0][c].length);
+
+				assertEquals(tasks * documents[0][c].length, vectorCount);
+				assertClose(expected, mean);
+			}
+		} finally {
+			partials.close();
+		}
+	}
+
+	private int[] randomSizes(int k) {
+		// mostly small clusters, with a few dominant ones
+		final int[] sizes = new int[k];
+		for (int i = 0; i < k; i++) {
+			sizes[i] = (random.nextInt(10) == 0) ? random.nextInt(100000) : random.nextInt(100);
+		}
+		return sizes;
+	}
+
+	private VectorWritable randomVector(int size, int maxIndex) {
+		final VectorWritable vector = new VectorWritable();
+		for (int i = 0; i < size; i++) {
+			vector.set(random.nextInt(maxIndex), random.nextDouble());
+		}
+		return vector;
+	}
+
+	private static void assertValid(PartitionPlan plan, int[] sizes, int k, int reducers) {
+		final String message = "k=" + k + ", reducers=" + reducers;
+		int expectedSlot = 0;
+		for (int c = 0; c < k; c++) {
+			assertTrue(message, plan.shards(c) >= 1 && plan.shards(c) <= reducers);
+			assertEquals(message, plan.reducer(plan.slot(c, 0)), plan.home(c));
+
+			// the slots of a cluster follow each other, each on a reducer of its own
+			final Set<Integer> used = new HashSet<Integer>();
+			for (int s = 0; s < plan.shards(c); s++) {
+				final int slot = plan.slot(c, s);
+				assertEquals(message, expectedSlot++, slot);
+				assertEquals(message, c, plan.cluster(slot));
+				assertTrue(message, plan.reducer(slot) >= 0 && plan.reducer(slot) < reducers);
+				assertTrue(message, used.add(plan.reducer(slot)));
+			}
+		}
+		if (sizes == null) {
+			for (int c = 0; c < k; c++) {
+				assertFalse(message, plan.isSharded(c));
+			}
+		}
+	}
+
+	private static void assertSamePlan(PartitionPlan expected, PartitionPlan actual, int k) {
+		for (int c = 0; c < k; c++) {
+			assertEquals(expected.shards(c), actual.shards(c));
+			assertEquals(expected.home(c), actual.home(c));
+			for (int s = 0; s < expected.shards(c); s++) {
+				assertEquals(expected.slot(c, s), actual.slot(c, s));
+				assertEquals(expected.reducer(expected.slot(c, s)), actual.reducer(actual.slot(c, s)));
+			}
+		}
+	}
+
+	private static void assertClose(VectorWritable expected, VectorWritable actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.indexAt(i), actual.indexAt(i));
+			assertEquals(expected.valueAt(i), actual.valueAt(i), 1e-12);
+		}
+	}
+}
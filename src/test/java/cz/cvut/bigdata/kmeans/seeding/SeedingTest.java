@@ -0,0 +1,115 @@
+package cz.cvut.bigdata.kmeans.seeding;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SeedingTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testUniformSample() {
+		assertUniform(new long[]{10, 30, 60}, 4, 20000);
+	}
+
+	@Test
+	public void testTasksWithFewerRecordsThanK() {
+		// the small tasks send all their vectors, the large one a sample of k
+		assertUniform(new long[]{1, 2, 0, 3, 44}, 6, 20000);
+	}
+
+	@Test
+	public void testFewerRecordsThanK() {
+		final long[] records = {1, 2, 0};
+		final List<List<VectorWritable>> samples = taskSamples(records, 5);
+		final VectorWritable[] centroids = Seeding.mergeSamples(samples, records, 5, random);
+		assertEquals(5, centroids.length);
+
+		// all the vectors are picked, the rest of the centroids are empty
+		final Set<Long> picked = new HashSet<Long>();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, centroids[i].size());
+			picked.add(centroids[i].indexAt(0));
+		}
+		assertEquals(3, picked.size());
+		assertEquals(0, centroids[3].size());
+		assertEquals(0, centroids[4].size());
+	}
+
+	@Test
+	public void testSamplesLeftIntact() {
+		final long[] records = {3, 8};
+		final List<List<VectorWritable>> samples = taskSamples(records, 3);
+		final List<List<VectorWritable>> original = new ArrayList<List<VectorWritable>>();
+		for (List<VectorWritable> sample : samples) {
+			original.add(new ArrayList<VectorWritable>(sample));
+		}
+
+		final VectorWritable[] centroids = Seeding.mergeSamples(samples, records, 3, random);
+		assertEquals(original, samples);
+		for (VectorWritable centroid : centroids) {
+			for (List<VectorWritable> sample : samples) {
+				for (VectorWritable vector : sample) {
+					assertNotSame(vector, centroid);
+				}
+			}
+		}
+	}
+
+	/** Check each vector is picked with the probability of k out of all the vectors. */
+	private void assertUniform(long[] records, int k, int trials) {
+		long total = 0;
+		for (long count : records) {
+			total += count;
+		}
+
+		final int[] picks = new int[(int) total];
+		for (int trial = 0; trial < trials; trial++) {
+			final VectorWritable[] centroids = Seeding.mergeSamples(taskSamples(records, k), records, k, random);
+			assertEquals(k, centroids.length);
+			final Set<Long> picked = new HashSet<Long>();
+			for (VectorWritable centroid : centroids) {
+				assertEquals(1, centroid.size());
+				assertTrue(picked.add(centroid.indexAt(0)));
+				picks[(int) centroid.indexAt(0)]++;
+			}
+		}
+
+		// within five standard deviations of the binomial count
+		final double p = (double) k / total;
+		final double expected = trials * p;
+		final double deviation = Math.sqrt(trials * p * (1.0 - p));
+		for (int i = 0; i < total; i++) {
+			assertEquals("vector " + i, expected, picks[i], 5.0 * deviation);
+		}
+	}
+
+	/** Uniform samples of at most k vectors of each task, the vectors of all the tasks numbered one after another. */
+	private List<List<VectorWritable>> taskSamples(long[] records, int k) {
+		final List<List<VectorWritable>> samples = new ArrayList<List<VectorWritable>>();
+		long first = 0;
+		for (long count : records) {
+			final List<VectorWritable> vectors = new ArrayList<VectorWritable>();
+			for (long i = first; i < first + count; i++) {
+				final VectorWritable vector = new VectorWritable();
+				vector.set(i, 1.0);
+				vectors.add(vector);
+			}
+			Collections.shuffle(vectors, random);
+			samples.add(new ArrayList<VectorWritable>(vectors.subList(0, (int) Math.min(k, count))));
+			first += count;
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,179 @@
+package cz.cvut.bigdata.kmeans.vector;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DecimalParserTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testSimpleValues() {
+		for (String text : new String[]{"0", "1", "-1", "+1", "0.5", ".5", "5.", "-.25", "10", "3.14159", "1e0", "1E1", "1e+1", "1.5e-3", "007", "0.000123"}) {
+			assertParsed(text);
+		}
+	}
+
+	@Test
+	public void testZeros() {
+		for (String text : new String[]{"0", "-0", "+0", "0.0", "-0.0", "0e10", "-0e-10", "0.000", "-000.000e5"}) {
+			assertParsed(text);
+		}
+	}
+
+	@Test
+	public void testExponents() {
+		for (int exponent = -340; exponent <= 320; exponent++) {
+			assertParsed("1e" + exponent);
+			assertParsed("-7.25e" + exponent);
+			assertParsed("123456789e" + exponent);
+			assertParsed("9007199254740993e" + exponent);
+		}
+	}
+
+	@Test
+	public void testFastPathLimits() {
+		// mantissas around 2^53, exponents around 22 and the divide path for e in [-26, -1]
+		final long limit = 1L << 53;
+		for (long mantissa = limit - 3; mantissa <= limit + 3; mantissa++) {
+			for (int exponent = -30; exponent <= 30; exponent++) {
+				assertParsed(mantissa + "e" + exponent);
+				assertParsed("-" + mantissa + "e" + exponent);
+			}
+		}
+		for (int exponent = 20; exponent <= 24; exponent++) {
+			assertParsed("3e" + exponent);
+			assertParsed("3e-" + exponent);
+			assertParsed("123456789012345e-" + exponent);
+		}
+	}
+
+	@Test
+	public void testLongMantissas() {
+		for (int digits = 15; digits <= 25; digits++) {
+			for (int i = 0; i < 500; i++) {
+				final String mantissa = randomDigits(digits);
+				for (int exponent = -28; exponent <= 2; exponent += 3) {
+					assertParsed(mantissa + "e" + exponent);
+				}
+				final int point = 1 + random.nextInt(digits);
+				assertParsed("0." + mantissa);
+				assertParsed(mantissa.substring(0, point) + "." + mantissa.substring(point));
+			}
+		}
+		assertParsed("12345678901234567890123456789");
+		assertParsed("0.99999999999999999999");
+		assertParsed("999999999999999999");
+		assertParsed("9999999999999999999");
+	}
+
+	@Test
+	public void testHalfwayValues() {
+		// decimal forms of the points halfway between the neighbouring doubles
+		for (int i = 0; i < 20000; i++) {
+			final double value = random.nextDouble();
+			final BigDecimal halfway = new BigDecimal(value).add(new BigDecimal(Math.ulp(value) / 2));
+			assertParsed(halfway.toPlainString());
+			assertParsed(halfway.round(new MathContext(18)).toString());
+			assertParsed(halfway.round(new MathContext(17)).toString());
+		}
+	}
+
+	@Test
+	public void testShortestForms() {
+		for (int i = 0; i < 100000; i++) {
+			final double value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 30);
+			assertParsed(Double.toString(value));
+			assertParsed(Double.toString(-value));
+			assertParsed(Double.toString(Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE)));
+		}
+	}
+
+	@Test
+	public void testSpecialForms() {
+		for (String text : new String[]{"NaN", "Infinity", "-Infinity", "0x1p3", "1e1000", "1e-1000", "4.9e-324", "1.7976931348623157e308", "1e12345", "1.5d", "2f"}) {
+			assertParsed(text);
+		}
+	}
+
+	@Test
+	public void testInvalidForms() {
+		for (String text : new String[]{"", "-", ".", "e5", "1e", "1e+", "1.2.3", "1-2", "abc", "1 2"}) {
+			try {
+				parse(text);
+				fail("parsed invalid: \"" + text + "\"");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testLongs() {
+		for (String text : new String[]{"0", "-0", "7", "-7", "+7", "123456789012345678", "-123456789012345678", "9223372036854775807", "-9223372036854775808"}) {
+			final byte[] bytes = text.getBytes(UTF8);
+			assertEquals(text, Long.parseLong(text), DecimalParser.parseLong(bytes, 0, bytes.length));
+		}
+		for (int i = 0; i < 10000; i++) {
+			final long value = random.nextLong() >> random.nextInt(64);
+			final byte[] bytes = ("  " + value + ":").getBytes(UTF8);
+			assertEquals(value, DecimalParser.parseLong(bytes, 2, bytes.length - 1));
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		// the numbers are decoded only within the given range of the bytes
+		final byte[] bytes = "9991.25e-3999".getBytes(UTF8);
+		assertEquals(Double.doubleToLongBits(1.25e-3), Double.doubleToLongBits(DecimalParser.parseDouble(bytes, 3, 10)));
+		assertEquals(Double.doubleToLongBits(1.25), Double.doubleToLongBits(DecimalParser.parseDouble(bytes, 3, 7)));
+		assertEquals(91L, DecimalParser.parseLong(bytes, 2, 4));
+	}
+
+	@Test
+	public void testVectorParseRange() {
+		final String text = "3:0.5 1:1e-3\t17:-2.25e10  9:123456789012345678e-20";
+		final byte[] bytes = ("xx 42:7 " + text + " 5:1 yy").getBytes(UTF8);
+		final int start = "xx 42:7 ".length();
+
+		final VectorWritable expected = new VectorWritable().parse(text);
+		final VectorWritable actual = new VectorWritable().parse(bytes, start, text.length());
+		assertEquals(expected, actual);
+		assertEquals(4, actual.size());
+		assertEquals(expected, new VectorWritable().parse(new Text(text)));
+
+		// an empty range parses into an empty vector
+		assertEquals(0, new VectorWritable().parse(bytes, start, 0).size());
+		assertEquals(0, new VectorWritable().parse(bytes, start - 1, 1).size());
+	}
+
+	private String randomDigits(int digits) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append((char) ('1' + random.nextInt(9)));
+		for (int i = 1; i < digits; i++) {
+			sb.append((char) ('0' + random.nextInt(10)));
+		}
+		return sb.toString();
+	}
+
+	private static double parse(String text) {
+		// pad the number, so only the given range is read
+		final byte[] bytes = ("x" + text + "9").getBytes(UTF8);
+		return DecimalParser.parseDouble(bytes, 1, bytes.length - 1);
+	}
+
+	private static void assertParsed(String text) {
+		final long expected = Double.doubleToLongBits(Double.parseDouble(text));
+		assertEquals(text, expected, Double.doubleToLongBits(parse(text)));
+	}
+}
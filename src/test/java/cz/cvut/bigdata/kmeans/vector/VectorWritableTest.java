@@ -0,0 +1,251 @@
+package cz.cvut.bigdata.kmeans.vector;
+
+import cz.cvut.bigdata.kmeans.vector.VectorWritable.Encoding;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VectorWritableTest {
+
+	private final Random random = new Random(42L);
+
+	@Test
+	public void testEncodingByConfiguration() {
+		final VectorWritable vector = new VectorWritable();
+		assertEquals(Encoding.DELTA, vector.getEncoding());
+		for (Encoding encoding : Encoding.values()) {
+			final Configuration conf = new Configuration(false);
+			conf.set(VectorWritable.ENCODING, encoding.name().toLowerCase(Locale.ENGLISH));
+			vector.setConf(conf);
+			assertEquals(encoding, vector.getEncoding());
+		}
+	}
+
+	@Test
+	public void testEncodingByConfigurationInTurkishLocale() {
+		// the dotted capital I of the Turkish locale must not break the names with an i
+		final Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			final VectorWritable vector = new VectorWritable();
+			for (Encoding encoding : Encoding.values()) {
+				final Configuration conf = new Configuration(false);
+				conf.set(VectorWritable.ENCODING, encoding.name().toLowerCase(Locale.ENGLISH));
+				vector.setConf(conf);
+				assertEquals(encoding, vector.getEncoding());
+			}
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void testUnknownEncodingName() {
+		final Configuration conf = new Configuration(false);
+		conf.set(VectorWritable.ENCODING, "zip");
+		try {
+			new VectorWritable().setConf(conf);
+			fail("accepted an unknown encoding");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("unknown vector encoding: zip"));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (Encoding encoding : Encoding.values()) {
+			for (int i = 0; i < 200; i++) {
+				assertRoundTrip(encoding, randomVector(random.nextInt(100), 1L << (1 + random.nextInt(62))));
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyVector() throws IOException {
+		for (Encoding encoding : Encoding.values()) {
+			assertRoundTrip(encoding, new VectorWritable());
+		}
+	}
+
+	@Test
+	public void testExtremeIndices() throws IOException {
+		final VectorWritable vector = new VectorWritable();
+		vector.set(Long.MIN_VALUE, 1.0);
+		vector.set(Long.MIN_VALUE + 1, -2.0);
+		vector.set(-1L << 40, 0.5);
+		vector.set(-1, 0.25);
+		vector.set(0, 3.0);
+		vector.set(1L << 40, -0.125);
+		vector.set(Long.MAX_VALUE - 1, 7.0);
+		vector.set(Long.MAX_VALUE, -7.0);
+		for (Encoding encoding : Encoding.values()) {
+			assertRoundTrip(encoding, vector);
+		}
+	}
+
+	@Test
+	public void testSpecialValues() throws IOException {
+		final VectorWritable vector = new VectorWritable();
+		vector.set(1, 0.0);
+		vector.set(2, -0.0);
+		vector.set(3, Double.MIN_VALUE);
+		vector.set(4, 1e300);
+		for (Encoding encoding : new Encoding[]{Encoding.PLAIN, Encoding.DELTA}) {
+			assertRoundTrip(encoding, vector);
+		}
+	}
+
+	@Test
+	public void testLegacyPlainRecord() throws IOException {
+		// the plain layout of the records written before the flag byte, unsorted and with a duplicate index
+		final DataOutputBuffer out = new DataOutputBuffer();
+		out.writeInt(4);
+		out.writeLong(7);
+		out.writeDouble(0.5);
+		out.writeLong(-3);
+		out.writeDouble(1.5);
+		out.writeLong(7);
+		out.writeDouble(2.5);
+		out.writeLong(1L << 50);
+		out.writeDouble(-1.0);
+
+		final VectorWritable vector = read(out, new VectorWritable());
+		assertEquals(3, vector.size());
+		assertEquals(-3, vector.indexAt(0));
+		assertEquals(7, vector.indexAt(1));
+		assertEquals(1L << 50, vector.indexAt(2));
+		assertEquals(1.5, vector.valueAt(0), 0.0);
+		assertEquals(2.5, vector.valueAt(1), 0.0);
+		assertEquals(-1.0, vector.valueAt(2), 0.0);
+	}
+
+	@Test
+	public void testPlainRecordHasNoFlag() throws IOException {
+		// a plain record starts with the highest byte of its size, which never has the flag bit
+		final VectorWritable vector = randomVector(300, 1000);
+		vector.setEncoding(Encoding.PLAIN);
+		final DataOutputBuffer out = new DataOutputBuffer();
+		vector.write(out);
+		assertEquals(4 + 16 * vector.size(), out.getLength());
+		assertEquals(0, out.getData()[0] & 0x80);
+
+		for (Encoding encoding : new Encoding[]{Encoding.DELTA, Encoding.FLOAT, Encoding.QUANTIZED}) {
+			vector.setEncoding(encoding);
+			out.reset();
+			vector.write(out);
+			assertEquals(0x80 | encoding.ordinal(), out.getData()[0] & 0xff);
+		}
+	}
+
+	@Test
+	public void testReadsAnyEncoding() throws IOException {
+		// the records are read by their own encoding regardless of the setting of the reader
+		final VectorWritable vector = randomVector(50, 1 << 20);
+		final VectorWritable reader = new VectorWritable();
+		for (Encoding writerEncoding : Encoding.values()) {
+			vector.setEncoding(writerEncoding);
+			final DataOutputBuffer out = new DataOutputBuffer();
+			vector.write(out);
+			for (Encoding readerEncoding : Encoding.values()) {
+				reader.setEncoding(readerEncoding);
+				assertDecoded(writerEncoding, vector, read(out, reader));
+			}
+		}
+	}
+
+	@Test
+	public void testConsecutiveRecords() throws IOException {
+		// the records of different sizes are read back in turn into a single reused vector
+		final DataOutputBuffer out = new DataOutputBuffer();
+		final VectorWritable[] vectors = new VectorWritable[20];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = randomVector(random.nextInt(40), 1 << 30);
+			vectors[i].setEncoding(Encoding.values()[i % Encoding.values().length]);
+			vectors[i].write(out);
+		}
+
+		final DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		final VectorWritable reader = new VectorWritable();
+		for (VectorWritable vector : vectors) {
+			reader.readFields(in);
+			assertDecoded(vector.getEncoding(), vector, reader);
+		}
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void testUnknownEncoding() {
+		final DataOutputBuffer out = new DataOutputBuffer();
+		try {
+			out.writeByte(0x80 | 0x7f);
+			out.writeByte(0);
+			read(out, new VectorWritable());
+			fail("read an unknown encoding");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private VectorWritable randomVector(int size, long maxIndex) {
+		final VectorWritable vector = new VectorWritable();
+		for (int i = 0; i < size; i++) {
+			final long index = (long) (random.nextDouble() * maxIndex) - ((random.nextInt(4) == 0) ? maxIndex / 2 : 0);
+			vector.set(index, random.nextGaussian() * Math.pow(10, random.nextInt(6) - 3));
+		}
+		return vector;
+	}
+
+	private static VectorWritable read(DataOutputBuffer out, VectorWritable vector) throws IOException {
+		final DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		vector.readFields(in);
+		assertEquals(0, in.available());
+		return vector;
+	}
+
+	private static void assertRoundTrip(Encoding encoding, VectorWritable vector) throws IOException {
+		vector.setEncoding(encoding);
+		final DataOutputBuffer out = new DataOutputBuffer();
+		vector.write(out);
+
+		// read into a vector holding stale entries
+		final VectorWritable copy = new VectorWritable();
+		copy.set(5, 5.0);
+		copy.set(6, 6.0);
+		assertDecoded(encoding, vector, read(out, copy));
+	}
+
+	private static void assertDecoded(Encoding encoding, VectorWritable expected, VectorWritable actual) {
+		assertEquals(expected.size(), actual.size());
+		double scale = 0.0;
+		for (int i = 0; i < expected.size(); i++) {
+			scale = Math.max(scale, Math.abs(expected.valueAt(i)));
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.indexAt(i), actual.indexAt(i));
+			final double value = expected.valueAt(i);
+			switch (encoding) {
+				case PLAIN:
+				case DELTA:
+					assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(actual.valueAt(i)));
+					break;
+				case FLOAT:
+					assertEquals((double) (float) value, actual.valueAt(i), 0.0);
+					break;
+				case QUANTIZED:
+					assertEquals(value, actual.valueAt(i), scale / Short.MAX_VALUE);
+					break;
+			}
+		}
+	}
+}